@@ -1,40 +1,44 @@
 package com.qa.basetest;
 
+import com.qa.basetest.devices.DeviceConfig;
+import com.qa.basetest.devices.DeviceScheduler;
+import com.qa.basetest.devices.DeviceSessionPool;
+import com.qa.basetest.devices.DurationStore;
 import com.qa.basetest.tags.*;
+import com.qa.utils.PropertiesHelper;
 import com.qa.utils.Reporter;
 import org.testng.IMethodInstance;
 import org.testng.IMethodInterceptor;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
 import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-public class BaseMethodsInterceptor implements IMethodInterceptor {
+/**
+ * Selects the test methods matching the tag criteria and orders them longest expected instance first. Once per suite,
+ * before any test runs, it also hands the device instances to the DeviceScheduler and pre-warms the sessions of the
+ * devices it will start first; intercept itself only selects and orders.
+ */
+public class BaseMethodsInterceptor implements IMethodInterceptor, ISuiteListener {
 
-	private List<String> testPhases = null;
-	private List<String> tags = null;
+	private final TagCriteria criteria;
+	private final long prewarmTimeoutMillis;
 
 	public BaseMethodsInterceptor() {
-		testPhases = retrieveSystemProperty("testPhase");
-		tags = retrieveSystemProperty("tags");
-	}
-
-	private List<String> retrieveSystemProperty(String systemPropertyName) {
-		String systemPropertyValue = System.getProperty(systemPropertyName);
-		if (systemPropertyValue != null && !systemPropertyValue.isEmpty()) {
-			return returnStringAsList(systemPropertyValue.toLowerCase());
-		}
-		return null;
-	}
-
-	private List<String> returnStringAsList(String stringValue) {
-		stringValue.toLowerCase();
-		List<String> array = Arrays.asList(stringValue.split("\\,"));
-		for (int i = 0; i < array.size(); i++) {
-			array.set(i, array.get(i).trim());
+		criteria = TagCriteria.fromSystemProperties();
+		prewarmTimeoutMillis = PropertiesHelper.getLongProperty(PropertiesHelper.getProperties("/test.properties"), "session_prewarm_timeout", 900000);
+		if (criteria.getExpression() != null) {
+			Reporter.info("Selecting tests matching [" + criteria.getExpression() + "]");
 		}
-		return array;
 	}
 
 	/**
@@ -42,167 +46,144 @@ public class BaseMethodsInterceptor implements IMethodInterceptor {
 	 *
 	 */
 	public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+		long start = System.currentTimeMillis();
 		// list to add test cases to be executed.
 		List<IMethodInstance> result = new ArrayList<IMethodInstance>();
+		final Map<IMethodInstance, CompiledTestTags> compiledTags = new IdentityHashMap<IMethodInstance, CompiledTestTags>();
+		boolean debug = Reporter.isDebugEnabled();
 
 		// go through each of the test methods and check if they meet the criteria set out.
 		for (IMethodInstance m : methods) {
-
-        	//grab the platform name and device type from the test
-			String deviceType = null;
-			String platformName = null;
-			if (m.getInstance() instanceof MultiDeviceBaseTest) {
-				MultiDeviceBaseTest testInstance = (MultiDeviceBaseTest) m.getInstance();
-				deviceType = testInstance.getDeviceType();
-				platformName = testInstance.getPlatformName();
-			}
-
-			// grab the TestTags annotations
-			TestTags methodTestTags = m.getMethod().getConstructorOrMethod().getMethod().getAnnotation(TestTags.class);
-			TestTags classTestTags = (TestTags) m.getMethod().getTestClass().getRealClass().getAnnotation(TestTags.class);
-
-			// check all the different conditions to see if the test matches them.
-			Boolean phasesMatch = doesTestMatchTestPhasesCriteria(classTestTags, methodTestTags);
-			Boolean tagsMatch = doesTestMatchTestTagsCriteria(classTestTags, methodTestTags);
-			Boolean deviceTypeMatch = doesTestMatchDeviceTypesCriteria(classTestTags, methodTestTags, deviceType);
-			Boolean platformNameMatch = doesTestMatchPlatformNameCriteria(classTestTags, methodTestTags, platformName);
-
-			Reporter.info("Test [" + m.getMethod().getMethodName().toString() + "] matching group values, phases: [" + phasesMatch + "], tags: [" + tagsMatch
-					+ "], deviceType: [" + deviceTypeMatch + "], plaformName: [" + platformNameMatch + "]");
-
-			if (phasesMatch && tagsMatch && deviceTypeMatch && platformNameMatch) {
+			// the TestTags annotations are only read the first time a class/method is seen
+			CompiledTestTags testTags = compiledTags(m.getMethod());
+			if (matches(m.getMethod(), m.getInstance(), testTags, debug)) {
 				//if the test matches the conditions then add it to the list to be executed
 				result.add(m);
+				compiledTags.put(m, testTags);
 			}
 		}
-		return result;
+		Reporter.info("Selected [" + result.size() + "] of [" + methods.size() + "] test methods in [" + (System.currentTimeMillis() - start) + "] ms");
+		return orderByExpectedDuration(result, compiledTags);
 	}
 
-	private Boolean doesTestMatchTestPhasesCriteria(TestTags classTestTags, TestTags methodTestTags) {
-		// if no phases past as argument then don't apply a filter
-		if (this.testPhases == null) {
-			return true;
-		}
-		// check if test phases were configured at class level
-		Phase[] classLevelPhases = null;
-		if (classTestTags != null) {
-			classLevelPhases = classTestTags.phase();
-		}
-		// check if test phases were configured at method level
-		Phase[] methodLevelPhases = null;
-		if (methodTestTags != null) {
-			methodLevelPhases = methodTestTags.phase();
-		}
-		// now go through each test phase in the arguments and see if either class or method info match it.
-		for (String testPhase : testPhases) {
-			if (doesEnumArrayContainValue(Phase.class, classLevelPhases, testPhase) || doesEnumArrayContainValue(Phase.class, methodLevelPhases, testPhase)) {
-				return true;
+	/**
+	 * The factories have created the instances by now, so the scheduler learns about all of them before the first one
+	 * asks to be admitted.
+	 */
+	public void onStart(ISuite suite) {
+		Map<Object, Long> expectedPerInstance = new IdentityHashMap<Object, Long>();
+		for (ITestNGMethod method : suite.getAllMethods()) {
+			Object instance = method.getInstance();
+			CompiledTestTags testTags = compiledTags(method);
+			if (instance instanceof MultiDeviceBaseTest && matches(method, instance, testTags, false)) {
+				long expected = expectedMillis(testTags, instance);
+				Long total = expectedPerInstance.get(instance);
+				expectedPerInstance.put(instance, total == null ? expected : total + expected);
 			}
 		}
-		return false;
-	}
-
-	private Boolean doesTestMatchTestTagsCriteria(TestTags classTestTags, TestTags methodTestTags) {
-
-		String[] classLevelTags = null;
-		if (classTestTags != null) {
-			classLevelTags = classTestTags.tags();
-		}
-
-		String[] methodLevelTags = null;
-		if (methodTestTags != null) {
-			methodLevelTags = methodTestTags.tags();
+		for (Map.Entry<Object, Long> instance : expectedPerInstance.entrySet()) {
+			MultiDeviceBaseTest testInstance = (MultiDeviceBaseTest) instance.getKey();
+			DeviceScheduler.getInstance().register(testInstance, testInstance.getDeviceConfig().getName(), instance.getValue());
 		}
-		return doesTestMatchAnyCriteria(classLevelTags, methodLevelTags, this.tags);
+		prewarmSessions(expectedPerInstance.keySet());
 	}
 
-	private Boolean doesTestMatchDeviceTypesCriteria(TestTags classTestTags, TestTags methodTestTags, String deviceTypeCurrentDevice) {
-		if (deviceTypeCurrentDevice == null) {
-			return true;
-		}
-
-		// check if deviceType was configured at class level
-		DeviceType[] classLevelDeviceTypes = null;
-		if (classTestTags != null) {
-			classLevelDeviceTypes = classTestTags.devicetype();
-		}
-		// check if test deviceType was configured at method level
-		DeviceType[] methodLevelDeviceTypes = null;
-		if (methodTestTags != null) {
-			methodLevelDeviceTypes = methodTestTags.devicetype();
-		}
+	public void onFinish(ISuite suite) {
+	}
 
-		//check if any deviceType tags were added at class/method level
-		if ((classLevelDeviceTypes == null || (Arrays.asList(classLevelDeviceTypes).size() == 1 && Arrays.asList(classLevelDeviceTypes).get(0).equals(DeviceType.NOT_DEFINED)))
-				&& (methodLevelDeviceTypes == null || (Arrays.asList(methodLevelDeviceTypes).size() == 1 && Arrays.asList(methodLevelDeviceTypes).get(0).equals(DeviceType.NOT_DEFINED)))) {
-			return true;
+	private boolean matches(ITestNGMethod method, Object instance, CompiledTestTags testTags, boolean debug) {
+		//grab the platform name and device type from the test
+		DeviceType deviceType = null;
+		Platform platformName = null;
+		if (instance instanceof MultiDeviceBaseTest) {
+			DeviceConfig deviceConfig = ((MultiDeviceBaseTest) instance).getDeviceConfig();
+			deviceType = deviceConfig.getDeviceType();
+			platformName = deviceConfig.getPlatform();
 		}
 
-		//check deviceType passed is valid
-		DeviceType currentDeviceType = DeviceType.valueOf(deviceTypeCurrentDevice.toUpperCase());
-		if (currentDeviceType == null) {
-			Reporter.error("The device type provide is invalid [" + deviceTypeCurrentDevice + "]");
-		}
+		// check all the different conditions to see if the test matches them.
+		boolean phasesMatch = criteria.matchesPhases(testTags);
+		boolean tagsMatch = criteria.matchesTags(testTags);
+		boolean deviceTypeMatch = criteria.matchesDeviceType(testTags, deviceType);
+		boolean platformNameMatch = criteria.matchesPlatform(testTags, platformName);
+		boolean expressionMatch = criteria.matchesExpression(testTags, deviceType, platformName);
 
-		// now go through each device type in the arguments and see if either class or method info match it.
-		if (doesEnumArrayContainValue(DeviceType.class, classLevelDeviceTypes, deviceTypeCurrentDevice) || doesEnumArrayContainValue(DeviceType.class, methodLevelDeviceTypes, deviceTypeCurrentDevice)) {
-			return true;
+		if (debug) {
+			Reporter.debug("Test [{}] matching group values, phases: [{}], tags: [{}], deviceType: [{}], plaformName: [{}], filter: [{}]",
+					method.getMethodName(), phasesMatch, tagsMatch, deviceTypeMatch, platformNameMatch, expressionMatch);
 		}
-		return false;
+		return phasesMatch && tagsMatch && deviceTypeMatch && platformNameMatch && expressionMatch;
 	}
 
-	private Boolean doesTestMatchPlatformNameCriteria(TestTags classTestTags, TestTags methodTestTags, String platformNameCurrentDevice) {
-		if (platformNameCurrentDevice == null) {
-			return true;
-		}
+	private static CompiledTestTags compiledTags(ITestNGMethod method) {
+		return CompiledTestTags.forMethod(method.getTestClass().getRealClass(), method.getConstructorOrMethod().getMethod());
+	}
 
-		// check if deviceType was configured at class level
-		Platform[] classLevelPlatformNames = null;
-		if (classTestTags != null) {
-			classLevelPlatformNames = classTestTags.platform();
-		}
-		// check if test deviceType was configured at method level
-		Platform[] methodLevelPlatformNames = null;
-		if (methodTestTags != null) {
-			methodLevelPlatformNames = methodTestTags.platform();
-		}
+	private static long expectedMillis(CompiledTestTags testTags, Object instance) {
+		String deviceName = instance instanceof MultiDeviceBaseTest ? ((MultiDeviceBaseTest) instance).getDeviceConfig().getName() : "";
+		return DurationStore.getInstance().estimate(testTags.getMethodKey(), deviceName);
+	}
 
-		//check if any deviceType tags were added at class/method level
-		if ((classLevelPlatformNames == null || (Arrays.asList(classLevelPlatformNames).size() == 1 && Arrays.asList(classLevelPlatformNames).get(0).equals(Platform.NOT_DEFINED)))
-				&& (methodLevelPlatformNames == null || (Arrays.asList(methodLevelPlatformNames).size() == 1 && Arrays.asList(methodLevelPlatformNames).get(0).equals(Platform.NOT_DEFINED)))) {
-			return true;
+	/**
+	 * Starts opening the sessions of the devices the scheduler will start first, all at the same time, so the first
+	 * tests wait for the slowest of those devices instead of for each of them in turn.
+	 */
+	private void prewarmSessions(Collection<Object> instances) {
+		if (prewarmTimeoutMillis <= 0) {
+			return;
+		}
+		int maxSessions = DeviceScheduler.getInstance().getMaxConcurrentSessions();
+		List<String> firstDevices = DeviceScheduler.getInstance().getStartOrder(maxSessions);
+		Map<DeviceConfig, DeviceSessionPool.SessionFactory> devices = new LinkedHashMap<DeviceConfig, DeviceSessionPool.SessionFactory>();
+		for (Object instance : instances) {
+			MultiDeviceBaseTest testInstance = (MultiDeviceBaseTest) instance;
+			DeviceConfig deviceConfig = testInstance.getDeviceConfig();
+			if (firstDevices.contains(deviceConfig.getName()) && !containsDevice(devices, deviceConfig.getName())) {
+				devices.put(deviceConfig, testInstance.getSessionFactory());
+			}
 		}
-
-		//check deviceType passed is valid
-		Platform currentPlatformNames = Platform.valueOf(platformNameCurrentDevice.toUpperCase());
-		if (currentPlatformNames == null) {
-			Reporter.error("The device type provide is invalid [" + platformNameCurrentDevice + "]");
+		if (!devices.isEmpty()) {
+			Reporter.info("Pre-warming the sessions of [" + devices.size() + "] devices, timeout [" + prewarmTimeoutMillis + "] ms");
+			DeviceSessionPool.getInstance().prewarm(devices, maxSessions, prewarmTimeoutMillis);
 		}
+	}
 
-		// now go through each device type in the arguments and see if either class or method info match it.
-		if (doesEnumArrayContainValue(Platform.class, classLevelPlatformNames, platformNameCurrentDevice) || doesEnumArrayContainValue(Platform.class, methodLevelPlatformNames, platformNameCurrentDevice)) {
-			return true;
+	private static boolean containsDevice(Map<DeviceConfig, DeviceSessionPool.SessionFactory> devices, String deviceName) {
+		for (DeviceConfig deviceConfig : devices.keySet()) {
+			if (deviceConfig.getName().equals(deviceName)) {
+				return true;
+			}
 		}
 		return false;
 	}
 
-	private Boolean doesTestMatchAnyCriteria(String[] classTagsString, String[] methodTagsString, List<String> criteriaList) {
-		if (criteriaList == null) {
-			// this means we havn't ask for it to filter on this property.
-			return true;
+	/**
+	 * Orders the methods longest expected instance first, using the recorded durations.
+	 */
+	private List<IMethodInstance> orderByExpectedDuration(List<IMethodInstance> methods, Map<IMethodInstance, CompiledTestTags> compiledTags) {
+		final Map<Object, Long> expectedPerInstance = new IdentityHashMap<Object, Long>();
+		final Map<IMethodInstance, Long> expectedPerMethod = new IdentityHashMap<IMethodInstance, Long>();
+		for (IMethodInstance m : methods) {
+			long expected = expectedMillis(compiledTags.get(m), m.getInstance());
+			expectedPerMethod.put(m, expected);
+			Long total = expectedPerInstance.get(m.getInstance());
+			expectedPerInstance.put(m.getInstance(), total == null ? expected : total + expected);
 		}
-		if (methodTagsString != null) {
-			// first take the method string
-			for (String methodValue : methodTagsString) {
-				if (criteriaList.contains(methodValue)) {
-					return true;
-				}
+
+		List<IMethodInstance> ordered = new ArrayList<IMethodInstance>(methods);
+		Collections.sort(ordered, new Comparator<IMethodInstance>() {
+			public int compare(IMethodInstance a, IMethodInstance b) {
+				int byInstance = Long.compare(expectedPerInstance.get(b.getInstance()), expectedPerInstance.get(a.getInstance()));
+				return byInstance != 0 ? byInstance : Long.compare(expectedPerMethod.get(b), expectedPerMethod.get(a));
 			}
-		}
-		if (classTagsString != null) {
-			// as a final we take the parent class string.
-			for (String classValue : classTagsString) {
-				if (criteriaList.contains(classValue)) {
+		});
+		return ordered;
+	}
+
+	public static <E extends Enum<E>> boolean doesEnumArrayContainValue(Class<E> clazz, E[] enumArray, String stringToLookFor) {
+		if (enumArray != null) {
+			for (E en : enumArray) {
+				if (en.name().equalsIgnoreCase(stringToLookFor)) {
 					return true;
 				}
 			}
@@ -210,10 +191,10 @@ public class BaseMethodsInterceptor implements IMethodInterceptor {
 		return false;
 	}
 
-	public static <E extends Enum<E>> boolean doesEnumArrayContainValue(Class<E> clazz, E[] enumArray, String stringToLookFor) {
+	public static <E extends Enum<E>> boolean doesEnumArrayContainValue(E[] enumArray, E valueToLookFor) {
 		if (enumArray != null) {
 			for (E en : enumArray) {
-				if (en.name().equalsIgnoreCase(stringToLookFor)) {
+				if (en == valueToLookFor) {
 					return true;
 				}
 			}
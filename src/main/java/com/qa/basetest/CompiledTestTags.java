@@ -0,0 +1,130 @@
+package com.qa.basetest;
+
+import com.qa.basetest.tags.DeviceType;
+import com.qa.basetest.tags.Phase;
+import com.qa.basetest.tags.Platform;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The class and method level TestTags of a test method merged into enum sets, resolved once per test class and method.
+ *
+ * Every factory instance of a test class shares the same compiled tags, so the interceptor only reads the annotations
+ * the first time it sees a method.
+ */
+public final class CompiledTestTags {
+
+	private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Method, CompiledTestTags>> CACHE = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<Method, CompiledTestTags>>();
+
+	private final String methodKey;
+	private final EnumSet<Phase> phases;
+	private final Set<String> tags;
+	private final EnumSet<DeviceType> deviceTypes;
+	private final boolean anyDeviceType;
+	private final EnumSet<Platform> platforms;
+	private final boolean anyPlatform;
+
+	private CompiledTestTags(Class<?> testClass, Method method) {
+		TestTags classTestTags = testClass.getAnnotation(TestTags.class);
+		TestTags methodTestTags = method.getAnnotation(TestTags.class);
+
+		this.methodKey = testClass.getName() + "." + method.getName();
+
+		this.phases = EnumSet.noneOf(Phase.class);
+		// method tags first, same order the tags were matched in before.
+		Set<String> tags = new LinkedHashSet<String>();
+		this.deviceTypes = EnumSet.noneOf(DeviceType.class);
+		this.platforms = EnumSet.noneOf(Platform.class);
+		for (TestTags testTags : new TestTags[] { methodTestTags, classTestTags }) {
+			if (testTags != null) {
+				Collections.addAll(phases, testTags.phase());
+				Collections.addAll(tags, testTags.tags());
+				Collections.addAll(deviceTypes, testTags.devicetype());
+				Collections.addAll(platforms, testTags.platform());
+			}
+		}
+		this.tags = Collections.unmodifiableSet(tags);
+
+		// a level without a device type / platform (or only the NOT_DEFINED default) doesn't restrict the test.
+		this.anyDeviceType = isUndefined(classTestTags == null ? null : classTestTags.devicetype(), DeviceType.NOT_DEFINED)
+				&& isUndefined(methodTestTags == null ? null : methodTestTags.devicetype(), DeviceType.NOT_DEFINED);
+		this.anyPlatform = isUndefined(classTestTags == null ? null : classTestTags.platform(), Platform.NOT_DEFINED)
+				&& isUndefined(methodTestTags == null ? null : methodTestTags.platform(), Platform.NOT_DEFINED);
+	}
+
+	/**
+	 * Returns the compiled tags of the method as run by the given test class (class level tags come from the test class,
+	 * not the class declaring the method).
+	 */
+	public static CompiledTestTags forMethod(Class<?> testClass, Method method) {
+		ConcurrentHashMap<Method, CompiledTestTags> methods = CACHE.get(testClass);
+		if (methods == null) {
+			ConcurrentHashMap<Method, CompiledTestTags> newMethods = new ConcurrentHashMap<Method, CompiledTestTags>();
+			methods = CACHE.putIfAbsent(testClass, newMethods);
+			if (methods == null) {
+				methods = newMethods;
+			}
+		}
+		CompiledTestTags compiled = methods.get(method);
+		if (compiled == null) {
+			// compiling twice in a race is harmless, both results are equal.
+			compiled = new CompiledTestTags(testClass, method);
+			methods.putIfAbsent(method, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * @return "fully.qualified.TestClass.method", the key durations are recorded under
+	 */
+	public String getMethodKey() {
+		return methodKey;
+	}
+
+	public Set<Phase> getPhases() {
+		return Collections.unmodifiableSet(phases);
+	}
+
+	public Set<String> getTags() {
+		return tags;
+	}
+
+	public boolean hasPhase(Phase phase) {
+		return phases.contains(phase);
+	}
+
+	public boolean hasTag(String tag) {
+		return tags.contains(tag);
+	}
+
+	/**
+	 * @return true if neither the class nor the method restrict the device type
+	 */
+	public boolean isAnyDeviceType() {
+		return anyDeviceType;
+	}
+
+	public boolean hasDeviceType(DeviceType deviceType) {
+		return deviceTypes.contains(deviceType);
+	}
+
+	/**
+	 * @return true if neither the class nor the method restrict the platform
+	 */
+	public boolean isAnyPlatform() {
+		return anyPlatform;
+	}
+
+	public boolean hasPlatform(Platform platform) {
+		return platforms.contains(platform);
+	}
+
+	private static <E extends Enum<E>> boolean isUndefined(E[] values, E notDefined) {
+		return values == null || (values.length == 1 && values[0] == notDefined);
+	}
+}
@@ -0,0 +1,37 @@
+package com.qa.basetest;
+
+import com.qa.basetest.devices.DeviceScheduler;
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+/**
+ * Gives the device test instances enough threads that the DeviceScheduler, not TestNG's thread pool, decides which
+ * device runs next: max_concurrent_sessions plus scheduler_extra_threads (default 2), at most one per instance. At most
+ * max_concurrent_sessions instances hold a session at a time, the extra threads keep instances whose device is free
+ * moving while others wait for a busy one. The methods come in longest expected instance first (BaseMethodsInterceptor),
+ * so the instances that get a thread first are the ones the scheduler wants to start first anyway.
+ */
+public class DeviceSchedulerListener implements ISuiteListener {
+
+    public void onStart(ISuite suite) {
+        // the factories have already created the instances by the time the suite starts.
+        int instances = MultiDeviceBaseTest.getInstancesCreated();
+        int maxSessions = DeviceScheduler.getInstance().getMaxConcurrentSessions();
+        long extraThreads = Math.max(0, PropertiesHelper.getLongProperty(PropertiesHelper.getProperties("/test.properties"), "scheduler_extra_threads", 2));
+        int threads = (int) Math.min(instances, maxSessions + extraThreads);
+        for (XmlTest xmlTest : suite.getXmlSuite().getTests()) {
+            if (xmlTest.getParallel() == XmlSuite.ParallelMode.INSTANCES && xmlTest.getThreadCount() < threads) {
+                Reporter.info("Raising the thread count of test [" + xmlTest.getName() + "] from [" + xmlTest.getThreadCount() + "] to [" + threads
+                        + "] for [" + instances + "] instances, device sessions are limited to [" + maxSessions + "] by the scheduler");
+                xmlTest.setThreadCount(threads);
+            }
+        }
+    }
+
+    public void onFinish(ISuite suite) {
+    }
+}
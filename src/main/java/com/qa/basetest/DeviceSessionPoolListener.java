@@ -0,0 +1,31 @@
+package com.qa.basetest;
+
+import com.qa.basetest.devices.DeviceHealth;
+import com.qa.basetest.devices.DeviceSessionPool;
+import com.qa.basetest.devices.SessionAcquirer;
+import com.qa.utils.DriverHttpClientFactory;
+import com.qa.utils.Reporter;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+/**
+ * Quits the device sessions still held by the pool once the suite is done, closes the idle driver connections and
+ * reports the sessions that were never needed and how often connections were reused.
+ */
+public class DeviceSessionPoolListener implements ISuiteListener {
+
+    public void onStart(ISuite suite) {
+    }
+
+    public void onFinish(ISuite suite) {
+        DeviceSessionPool.getInstance().shutdown();
+        DriverHttpClientFactory.getInstance().cleanupIdleClients();
+        Reporter.info(DriverHttpClientFactory.getInstance().formatStatistics());
+        DeviceHealth.getInstance().close();
+        Reporter.info(DeviceHealth.getInstance().formatStatistics());
+        SessionAcquirer acquirer = SessionAcquirer.getInstance();
+        Reporter.info("Session creations tried again [" + acquirer.getRetries() + "], instances moved to an equivalent device [" + acquirer.getFallbacks()
+                + "], devices taken out after failing in a row [" + acquirer.getCircuitsOpened() + "]");
+        Reporter.info("Test instances created [" + MultiDeviceBaseTest.getInstancesCreated() + "], device sessions avoided because no test method was scheduled [" + MultiDeviceBaseTest.getSessionsAvoided() + "]");
+    }
+}
@@ -0,0 +1,100 @@
+package com.qa.basetest;
+
+import com.qa.basetest.devices.DeviceScheduler;
+import com.qa.basetest.devices.DurationStore;
+import com.qa.utils.Reporter;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the duration of every test method per device in the DurationStore and, at the end of the suite, compares the
+ * wall clock time predicted from the recorded durations with the actual one (target/durations-report.txt).
+ */
+public class DurationListener implements ITestListener, ISuiteListener {
+
+    private static final String REPORT_FILE = "target" + File.separator + "durations-report.txt";
+
+    private final Map<String, Long> actualPerDevice = new TreeMap<String, Long>();
+    private long suiteStart;
+
+    public void onStart(ISuite suite) {
+        suiteStart = System.currentTimeMillis();
+    }
+
+    public void onFinish(ISuite suite) {
+        long actual = System.currentTimeMillis() - suiteStart;
+        long predicted = DeviceScheduler.getInstance().predictMakespanMillis();
+        DurationStore.getInstance().close();
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-40s %15s %15s%n", "device", "predicted (ms)", "actual (ms)"));
+        Map<String, Long> plannedPerDevice = DeviceScheduler.getInstance().getPlannedDurationPerDevice();
+        synchronized (actualPerDevice) {
+            for (Map.Entry<String, Long> planned : plannedPerDevice.entrySet()) {
+                Long actualOnDevice = actualPerDevice.get(planned.getKey());
+                report.append(String.format("%-40s %15d %15d%n", planned.getKey(), planned.getValue(), actualOnDevice == null ? 0 : actualOnDevice));
+            }
+        }
+        report.append(String.format("%-40s %15d %15d%n", "wall clock", predicted, actual));
+
+        Reporter.info("Suite [" + suite.getName() + "] predicted wall clock time [" + predicted + "] ms, actual [" + actual + "] ms, details in [" + REPORT_FILE + "]");
+        File reportFile = new File(REPORT_FILE);
+        reportFile.getParentFile().mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            Reporter.info("Unable to write the duration report [" + REPORT_FILE + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    public void onTestSuccess(ITestResult result) {
+        record(result, "PASS");
+    }
+
+    public void onTestFailure(ITestResult result) {
+        record(result, "FAIL");
+    }
+
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        record(result, "PASS");
+    }
+
+    public void onTestStart(ITestResult result) {
+    }
+
+    public void onTestSkipped(ITestResult result) {
+    }
+
+    public void onStart(ITestContext context) {
+    }
+
+    public void onFinish(ITestContext context) {
+    }
+
+    private void record(ITestResult result, String status) {
+        if (!(result.getInstance() instanceof MultiDeviceBaseTest)) {
+            return;
+        }
+        String deviceName = ((MultiDeviceBaseTest) result.getInstance()).getDeviceConfig().getName();
+        String method = result.getMethod().getRealClass().getName() + "." + result.getMethod().getMethodName();
+        long duration = result.getEndMillis() - result.getStartMillis();
+
+        DurationStore.getInstance().record(method, deviceName, duration, status);
+        synchronized (actualPerDevice) {
+            Long total = actualPerDevice.get(deviceName);
+            actualPerDevice.put(deviceName, total == null ? duration : total + duration);
+        }
+    }
+}
@@ -1,9 +1,19 @@
 package com.qa.basetest;
 
-import com.qa.utils.ExcelHelper;
+import com.qa.basetest.devices.DeviceCatalog;
+import com.qa.basetest.devices.DeviceConfig;
+import com.qa.basetest.devices.DeviceHealth;
+import com.qa.basetest.devices.DeviceQuery;
+import com.qa.basetest.devices.DeviceScheduler;
+import com.qa.basetest.devices.DeviceSessionPool;
+import com.qa.basetest.devices.SessionAcquirer;
+import com.qa.basetest.tags.Platform;
+import com.qa.utils.CapabilityTemplate;
+import com.qa.utils.DriverHttpClientFactory;
 import com.qa.utils.PropertiesHelper;
 import com.qa.utils.Reporter;
 import com.qa.utils.TestUtils;
+import com.qa.utils.Timeline;
 import io.appium.java_client.AppiumDriver;
 import io.appium.java_client.android.AndroidDriver;
 import io.appium.java_client.ios.IOSDriver;
@@ -14,22 +24,40 @@ import org.testng.annotations.*;
 
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
-@Listeners({ BaseMethodsInterceptor.class })
+@Listeners({ BaseMethodsInterceptor.class, DeviceSchedulerListener.class, DeviceSessionPoolListener.class, DurationListener.class, TimelineListener.class, ScreenshotListener.class,
+        StreamingResultListener.class })
 public class MultiDeviceBaseTest {
 
-    //grab the required test properties
-    protected Properties baseProperties = PropertiesHelper.loadPropertiesFile("/test.properties");
-    protected Properties desiredCapsProperties = PropertiesHelper.loadPropertiesFile("/devices/desiredcaps.properties");
+    //grab the required test properties, the file is loaded once per suite and each instance gets its own copy to change.
+    protected Properties baseProperties = PropertiesHelper.copyOf(PropertiesHelper.getProperties("/test.properties"));
+    /**
+     * @deprecated the capabilities come from capabilityTemplate, these shared read only properties are no longer used.
+     * Assign capabilityTemplate = new CapabilityTemplate(properties) to give an instance other default capabilities.
+     */
+    @Deprecated
+    protected Properties desiredCapsProperties = PropertiesHelper.getProperties("/devices/desiredcaps.properties");
+    protected CapabilityTemplate capabilityTemplate = CapabilityTemplate.forPropertiesFile("/devices/desiredcaps.properties");
 
+    protected DeviceConfig deviceConfig;
     protected String deviceName;
     protected String deviceType;
     protected String platformName;
     protected URL sauceLabsURL;
 
     protected AppiumDriver<WebElement> appiumDriver;
+    private boolean sessionLeased;
+    //a lock rather than synchronized: a virtual thread blocked inside synchronized (waiting for a device) pins its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private static volatile DeviceCatalog catalog;
+    private static final AtomicInteger INSTANCES_CREATED = new AtomicInteger();
+    private static final AtomicInteger INSTANCES_WITH_SESSION = new AtomicInteger();
 
     /**
      *  This data provider can be adapted to return a single or a whole bunch of devices.
@@ -38,17 +66,36 @@ public class MultiDeviceBaseTest {
      */
     @DataProvider(name = "getDevices", parallel = true)
     public static Iterator<Object[]> getDevices() {
-        Properties properties = PropertiesHelper.loadPropertiesFile("/test.properties");
+        Properties properties = PropertiesHelper.getProperties("/test.properties");
 
         String deviceName = properties.getProperty("saucelabs_device_name");
         String platformName = properties.getProperty("saucelabs_platform_name");
         String platformVersion = properties.getProperty("saucelabs_platform_version");
         Reporter.info("Filtering arguments provided DeviceName [" + deviceName + "], PlatformName [" + platformName + "], PlatformVersion [" + platformVersion + "]");
 
-        ArrayList<Object[]> filterMap = filterDevicesByArguments(deviceName, platformName, platformVersion);
+        ArrayList<DeviceConfig> devices = DeviceHealth.getInstance().filter(filterDevicesByArguments(deviceName, platformName, platformVersion));
+
+        Reporter.info("Number of device selected from sheet [" + devices.size() + "]");
+        ArrayList<Object[]> parameters = new ArrayList<Object[]>(devices.size());
+        for (DeviceConfig device : devices) {
+            parameters.add(new Object[] { device });
+        }
+        return parameters.iterator();
+    }
 
-        Reporter.info("Number of device selected from sheet [" + filterMap.size() + "]");
-        return filterMap.iterator();
+    /**
+     * Same devices as getDevices but handed over as HashMaps, for factories still taking a HashMap<String, Object>.
+     *
+     * @return
+     */
+    @DataProvider(name = "getDeviceMaps", parallel = true)
+    public static Iterator<Object[]> getDeviceMaps() {
+        ArrayList<Object[]> parameters = new ArrayList<Object[]>();
+        Iterator<Object[]> devices = getDevices();
+        while (devices.hasNext()) {
+            parameters.add(new Object[] { ((DeviceConfig) devices.next()[0]).toMap() });
+        }
+        return parameters.iterator();
     }
 
     /**
@@ -57,45 +104,185 @@ public class MultiDeviceBaseTest {
      * @param deviceConfig
      */
     public MultiDeviceBaseTest(HashMap<String, Object> deviceConfig) {
-        this.deviceType = deviceConfig.get("deviceType").toString();
-        this.deviceName = deviceConfig.get("name").toString();
-        this.platformName = deviceConfig.get("platformName").toString();
-        String urlString = baseProperties.getProperty("saucelabs_endpoint");
+        this(DeviceConfig.fromMap(deviceConfig));
+    }
+
+    /**
+     * Configure the device details for filtering.
+     *
+     * @param deviceConfig
+     */
+    public MultiDeviceBaseTest(DeviceConfig deviceConfig) {
+        setDeviceConfig(deviceConfig);
+        INSTANCES_CREATED.incrementAndGet();
+    }
 
-        //grab url from config and created desired caps.
+    private void setDeviceConfig(DeviceConfig deviceConfig) {
+        this.deviceConfig = deviceConfig;
+        this.deviceType = deviceConfig.getDeviceTypeName();
+        this.deviceName = deviceConfig.getName();
+        this.platformName = deviceConfig.getPlatformName();
+    }
+
+    /**
+     * Opens a new session on the device, used by the session pool when there is no reusable session.
+     *
+     * @param deviceConfig
+     * @return
+     */
+    protected AppiumDriver<WebElement> createSession(DeviceConfig deviceConfig) {
+        //grab url from config, only needed once an instance actually opens a session.
+        String urlString = baseProperties.getProperty("saucelabs_endpoint");
         try {
-            sauceLabsURL = new URL(urlString);
-        } catch (MalformedURLException e) {
+            sauceLabsURL = URI.create(urlString).toURL();
+        } catch (MalformedURLException | IllegalArgumentException e) {
             Reporter.error("The URL provided [" + urlString + "] is invalid due to [" + e.getMessage() + "]");
         }
 
         //created desired capabilities from 2 sources.
-        DesiredCapabilities desiredCapabilities = TestUtils.createDesiredCaps(desiredCapsProperties, deviceConfig);
+        DesiredCapabilities desiredCapabilities = TestUtils.createDesiredCaps(capabilityTemplate, deviceConfig);
 
         //set test name (optional)
         desiredCapabilities.setCapability("testobject_test_name", this.getClass().getSimpleName());
 
-        //instantiate driver.
-        if (deviceConfig.get("platformName").toString().equalsIgnoreCase("IOS")) {
-            appiumDriver = new IOSDriver<>(sauceLabsURL, desiredCapabilities);
+        //instantiate driver, every driver sends its commands through the same pooled http client.
+        AppiumDriver<WebElement> driver;
+        if (deviceConfig.getPlatform() == Platform.IOS) {
+            driver = new IOSDriver<>(sauceLabsURL, DriverHttpClientFactory.getInstance(), desiredCapabilities);
         } else {
-            appiumDriver = new AndroidDriver<>(sauceLabsURL, desiredCapabilities);
+            driver = new AndroidDriver<>(sauceLabsURL, DriverHttpClientFactory.getInstance(), desiredCapabilities);
         }
         //report the device it was run against and the report url.
-        Reporter.info("Running tests against device [" + appiumDriver.getCapabilities().getCapability("testobject_device").toString() + "]. Results can be found here: [" + appiumDriver.getCapabilities().getCapability("testobject_test_report_url").toString() + "]");
+        Reporter.info("Running tests against device [" + driver.getCapabilities().getCapability("testobject_device").toString() + "]. Results can be found here: [" + driver.getCapabilities().getCapability("testobject_test_report_url").toString() + "]");
+        return driver;
+    }
+
+    /**
+     * Opens sessions for this instance, also used to pre-warm the session of its device before the suite starts.
+     *
+     * @return
+     */
+    DeviceSessionPool.SessionFactory getSessionFactory() {
+        return new DeviceSessionPool.SessionFactory() {
+            public AppiumDriver<WebElement> createSession(DeviceConfig deviceConfig) {
+                return Timeline.time("session.create", () -> MultiDeviceBaseTest.this.createSession(deviceConfig));
+            }
+        };
+    }
+
+    /**
+     * Returns the device session, leasing it from the pool the first time it is needed. Instances whose test methods
+     * were all filtered out by the interceptor never get here and so never book a device.
+     *
+     * @return
+     */
+    protected AppiumDriver<WebElement> getAppiumDriver() {
+        lock.lock();
+        try {
+            return leaseIfNeeded();
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * Probes the session this instance already holds before the next test method, and moves the rest of the instance
+     * to another session (an equivalent device if this one is quarantined) when it doesn't answer.
+     */
+    private void probeSession() {
+        lock.lock();
+        try {
+            if (appiumDriver == null) {
+                return;
+            }
+            DeviceHealth health = DeviceHealth.getInstance();
+            boolean answered = health.probe(deviceName, appiumDriver);
+            if (answered && !health.isQuarantined(deviceName)) {
+                return;
+            }
+            Reporter.info("The session for device [" + deviceName + "] " + (answered ? "belongs to a quarantined device" : "no longer answers") + ", moving the remaining tests");
+            DeviceSessionPool.getInstance().discard(deviceConfig, appiumDriver);
+            appiumDriver = null;
+            acquireSession();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AppiumDriver<WebElement> leaseIfNeeded() {
+        if (appiumDriver == null) {
+            //wait for the scheduler to hand us the device before booking it.
+            Timeline.time("scheduler.admit", () -> DeviceScheduler.getInstance().admit(this, deviceName));
+            acquireSession();
+            if (!sessionLeased) {
+                sessionLeased = true;
+                INSTANCES_WITH_SESSION.incrementAndGet();
+            }
+        }
+        return appiumDriver;
+    }
+
+    private void acquireSession() {
+        try {
+            SessionAcquirer.Lease lease = Timeline.time("session.lease", () -> SessionAcquirer.getInstance().acquire(this, deviceConfig, getDeviceCatalog(), getSessionFactory()));
+            if (lease.getDeviceConfig() != deviceConfig) {
+                //running against an equivalent device (the scheduler has moved us to it), the rest of the instance follows it.
+                setDeviceConfig(lease.getDeviceConfig());
+                Reporter.setDevice(deviceName);
+            }
+            appiumDriver = lease.getDriver();
+        } catch (RuntimeException e) {
+            DeviceScheduler.getInstance().complete(this);
+            throw e;
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void releaseSession() {
+        lock.lock();
+        try {
+            if (appiumDriver != null) {
+                DeviceSessionPool.getInstance().release(deviceConfig, appiumDriver);
+                appiumDriver = null;
+                DeviceScheduler.getInstance().complete(this);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
     @BeforeMethod(alwaysRun = true)
-    public synchronized void before(Method method) {
-        //setup test.
+    public void before(Method method) {
+        //setup test, the session is only leased once a test method is actually scheduled on this instance.
+        Reporter.setDevice(deviceName);
+        Reporter.setTest(getClass().getSimpleName() + "." + method.getName());
         Reporter.info("### Starting test [" + method.getName() + "] ###");
+        probeSession();
+        getAppiumDriver();
     }
 
     @AfterMethod(alwaysRun = true)
-    public synchronized void after(Method method) {
+    public void after(Method method) {
         //teardown test.
         Reporter.info("### Finishing test [" + method.getName() + "] ###");
+        Reporter.clearContext();
+    }
+
+    /**
+     * Number of test instances that never needed a device session, i.e. sessions avoided in this run.
+     *
+     * @return
+     */
+    public static int getSessionsAvoided() {
+        return INSTANCES_CREATED.get() - INSTANCES_WITH_SESSION.get();
+    }
+
+    public static int getInstancesCreated() {
+        return INSTANCES_CREATED.get();
+    }
+
+    public DeviceConfig getDeviceConfig() {
+        return this.deviceConfig;
     }
 
     public String getDeviceType() {
@@ -107,38 +294,42 @@ public class MultiDeviceBaseTest {
     }
 
     /**
+     * The whole device sheet, also where equivalent devices are found when a device has no session for us.
+     *
+     * @return
+     */
+    protected static DeviceCatalog getDeviceCatalog() {
+        DeviceCatalog deviceCatalog = catalog;
+        if (deviceCatalog == null) {
+            deviceCatalog = DeviceCatalog.load("src/test/resources/devices/devicelist.xlsx", "RealDevices");
+            catalog = deviceCatalog;
+        }
+        return deviceCatalog;
+    }
+
+    /**
+     * Builds a single catalog query from the arguments, a device name (or comma separated list) takes precedence over the platform filters.
      *
      * @param deviceName
      * @param platformName
      * @param platformVersion
      * @return
      */
-    private static ArrayList<Object[]> filterDevicesByArguments(String deviceName, String platformName, String platformVersion) {
-        ArrayList<Object[]> filterMap = null;
-        ExcelHelper excelHelper = new ExcelHelper();
-        ArrayList<Object[]> allDevicesMap = excelHelper.retrieveAllRows("src/test/resources/devices/devicelist.xlsx", "RealDevices");
+    private static ArrayList<DeviceConfig> filterDevicesByArguments(String deviceName, String platformName, String platformVersion) {
+        DeviceCatalog deviceCatalog = getDeviceCatalog();
 
-        //do some filtering here and return a single device (can easily be adapted to return multiple devices).
+        DeviceQuery query = DeviceQuery.none();
         if (!deviceName.isEmpty()) {
-            if (!deviceName.contains(",")) {
-                filterMap = excelHelper.filterMapByColumn(allDevicesMap, "name", deviceName);
-            } else {
-                filterMap = excelHelper.filterMapByColumn(allDevicesMap, "name", deviceName.split(","));
-            }
+            query = DeviceQuery.column("name", deviceName.split(","));
         } else if (!platformName.isEmpty()) {
-            if (platformVersion.isEmpty()) {
-                //filter by platform
-                filterMap = excelHelper.filterMapByColumn(allDevicesMap, "platformName", platformName);
-            } else  {
-                // filter by platform and then version
-                filterMap = excelHelper.filterMapByColumn(allDevicesMap, "platformName", platformName);
-                filterMap = excelHelper.filterMapByColumn(filterMap, "platformVersion", platformVersion);
+            query = DeviceQuery.column("platformName", platformName);
+            if (!platformVersion.isEmpty()) {
+                query = query.and(DeviceQuery.platformVersion(platformVersion));
             }
         } else if (!platformVersion.isEmpty()) {
-            //filter by platform Version
-            filterMap = excelHelper.filterMapByColumn(allDevicesMap, "platformVersion", platformVersion);
+            query = DeviceQuery.platformVersion(platformVersion);
         }
 
-        return filterMap;
+        return deviceCatalog.select(query);
     }
 }
@@ -0,0 +1,32 @@
+package com.qa.basetest;
+
+import com.qa.utils.Reporter;
+import com.qa.utils.ScreenshotStore;
+import com.qa.utils.ScreenshotWriter;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+import java.io.File;
+
+/**
+ * Waits for the screenshots still being written in the background once the suite is done and reports how much the
+ * screenshot store saved by keeping every image once.
+ */
+public class ScreenshotListener implements ISuiteListener {
+
+    private static final long FLUSH_TIMEOUT_MILLIS = 60000;
+
+    public void onStart(ISuite suite) {
+    }
+
+    public void onFinish(ISuite suite) {
+        ScreenshotWriter writer = ScreenshotWriter.getInstance();
+        if (!writer.awaitWritten(FLUSH_TIMEOUT_MILLIS)) {
+            Reporter.info("Screenshots were still being written after [" + FLUSH_TIMEOUT_MILLIS + "] ms");
+        }
+        ScreenshotStore store = writer.getStore();
+        store.close();
+        Reporter.info("Screenshots written [" + writer.getWritten() + "], failed [" + writer.getFailed() + "], stored [" + store.getBytesWritten() / 1024
+                + "] KB, deduplicated [" + store.getBytesDeduplicated() / 1024 + "] KB, index in [" + new File(store.getRoot(), "index.tsv") + "]");
+    }
+}
@@ -0,0 +1,109 @@
+package com.qa.basetest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.qa.basetest.devices.DeviceConfig;
+import com.qa.utils.Reporter;
+import com.qa.utils.ResultStream;
+import com.qa.utils.TestUtils;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Writes every test result to the ResultStream (target/results/results.ndjson) the moment it completes, with its
+ * device, timings, screenshots and failure, and merges them into target/results/junit.xml at the end of the suite.
+ */
+public class StreamingResultListener implements ITestListener, ISuiteListener {
+
+    public void onStart(ISuite suite) {
+    }
+
+    public void onFinish(ISuite suite) {
+        ResultStream stream = ResultStream.getInstance();
+        stream.close();
+        if (!stream.getResultsFile().isFile()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            int cases = ResultStream.mergeToJUnitXml(stream.getResultsFile(), stream.getJUnitXmlFile());
+            Reporter.info("Streamed [" + stream.getWritten() + "] results to [" + stream.getResultsFile() + "], merged [" + cases + "] into [" + stream.getJUnitXmlFile()
+                    + "] in [" + (System.currentTimeMillis() - start) + "] ms");
+        } catch (IOException e) {
+            Reporter.info("Unable to merge the results into [" + stream.getJUnitXmlFile() + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    public void onTestSuccess(ITestResult result) {
+        record(result, "PASS");
+    }
+
+    public void onTestFailure(ITestResult result) {
+        record(result, "FAILURE");
+    }
+
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        record(result, "PASS");
+    }
+
+    public void onTestSkipped(ITestResult result) {
+        record(result, "SKIP");
+    }
+
+    public void onTestStart(ITestResult result) {
+    }
+
+    public void onStart(ITestContext context) {
+    }
+
+    public void onFinish(ITestContext context) {
+    }
+
+    private void record(ITestResult result, String status) {
+        JsonObject line = new JsonObject();
+        line.addProperty("suite", result.getTestContext().getSuite().getName());
+        line.addProperty("test", result.getTestContext().getName());
+        line.addProperty("class", result.getMethod().getRealClass().getName());
+        line.addProperty("method", result.getMethod().getMethodName());
+        line.addProperty("status", status);
+        line.addProperty("start", result.getStartMillis());
+        line.addProperty("end", result.getEndMillis());
+        line.addProperty("durationMillis", result.getEndMillis() - result.getStartMillis());
+        line.addProperty("thread", Thread.currentThread().getName());
+
+        if (result.getInstance() instanceof MultiDeviceBaseTest) {
+            DeviceConfig deviceConfig = ((MultiDeviceBaseTest) result.getInstance()).getDeviceConfig();
+            JsonObject device = new JsonObject();
+            device.addProperty("name", deviceConfig.getName());
+            device.addProperty("platformName", deviceConfig.getPlatformName());
+            device.addProperty("platformVersion", deviceConfig.getPlatformVersion());
+            device.addProperty("deviceType", deviceConfig.getDeviceTypeName());
+            line.add("device", device);
+        }
+
+        JsonArray screenshots = new JsonArray();
+        for (String screenshot : TestUtils.getScreenshots(result)) {
+            screenshots.add(screenshot);
+        }
+        line.add("screenshots", screenshots);
+
+        Throwable throwable = result.getThrowable();
+        if (throwable != null) {
+            StringWriter stackTrace = new StringWriter();
+            throwable.printStackTrace(new PrintWriter(stackTrace));
+            JsonObject failure = new JsonObject();
+            failure.addProperty("type", throwable.getClass().getName());
+            failure.addProperty("message", throwable.getMessage());
+            failure.addProperty("stackTrace", stackTrace.toString());
+            line.add("failure", failure);
+        }
+        ResultStream.getInstance().append(line);
+    }
+}
@@ -0,0 +1,121 @@
+package com.qa.basetest;
+
+import com.qa.basetest.tags.DeviceType;
+import com.qa.basetest.tags.Phase;
+import com.qa.basetest.tags.Platform;
+import com.qa.utils.Reporter;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The -DtestPhase, -Dtags and -DtestFilter filters, parsed once per run and matched against the CompiledTestTags of each test method.
+ */
+public final class TagCriteria {
+
+	private final EnumSet<Phase> phases;
+	private final Set<String> tags;
+	private final TagExpression expression;
+
+	public TagCriteria(String testPhases, String tags) {
+		this(testPhases, tags, null);
+	}
+
+	/**
+	 * @param testPhases comma separated test phases, null or empty to run every phase
+	 * @param tags comma separated tags, null or empty to run every tag
+	 * @param testFilter a TagExpression, null or empty to not filter on one
+	 */
+	public TagCriteria(String testPhases, String tags, String testFilter) {
+		Set<String> phaseNames = split(testPhases);
+		if (phaseNames == null) {
+			this.phases = null;
+		} else {
+			// unknown phases never match, same as before.
+			this.phases = EnumSet.noneOf(Phase.class);
+			for (Phase phase : Phase.values()) {
+				if (phaseNames.contains(phase.name().toLowerCase())) {
+					this.phases.add(phase);
+				}
+			}
+		}
+		this.tags = split(tags);
+		this.expression = testFilter == null || testFilter.trim().isEmpty() ? null : TagExpression.parse(testFilter);
+	}
+
+	public static TagCriteria fromSystemProperties() {
+		return new TagCriteria(System.getProperty("testPhase"), System.getProperty("tags"), System.getProperty("testFilter"));
+	}
+
+	public TagExpression getExpression() {
+		return expression;
+	}
+
+	public boolean matchesExpression(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+		return expression == null || expression.matches(testTags, deviceType, platform);
+	}
+
+	public boolean matchesPhases(CompiledTestTags testTags) {
+		// if no phases past as argument then don't apply a filter
+		if (phases == null) {
+			return true;
+		}
+		for (Phase phase : phases) {
+			if (testTags.hasPhase(phase)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean matchesTags(CompiledTestTags testTags) {
+		if (tags == null) {
+			return true;
+		}
+		for (String tag : tags) {
+			if (testTags.hasTag(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param deviceType the device type of the test instance, null if the test doesn't run against a device
+	 */
+	public boolean matchesDeviceType(CompiledTestTags testTags, DeviceType deviceType) {
+		if (deviceType == null || testTags.isAnyDeviceType()) {
+			return true;
+		}
+		if (deviceType == DeviceType.NOT_DEFINED) {
+			Reporter.error("The device type provide is invalid [" + deviceType + "]");
+		}
+		return testTags.hasDeviceType(deviceType);
+	}
+
+	/**
+	 * @param platform the platform of the test instance, null if the test doesn't run against a device
+	 */
+	public boolean matchesPlatform(CompiledTestTags testTags, Platform platform) {
+		if (platform == null || testTags.isAnyPlatform()) {
+			return true;
+		}
+		if (platform == Platform.NOT_DEFINED) {
+			Reporter.error("The platform provided is invalid [" + platform + "]");
+		}
+		return testTags.hasPlatform(platform);
+	}
+
+	private static Set<String> split(String value) {
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		Set<String> values = new HashSet<String>();
+		for (String item : value.toLowerCase().split("\\,")) {
+			values.add(item.trim());
+		}
+		return Collections.unmodifiableSet(values);
+	}
+}
@@ -0,0 +1,325 @@
+package com.qa.basetest;
+
+import com.qa.basetest.tags.DeviceType;
+import com.qa.basetest.tags.Phase;
+import com.qa.basetest.tags.Platform;
+import com.qa.utils.Reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A boolean test selection expression, e.g. "regression AND github AND NOT (flaky OR tablet)".
+ *
+ * Operators are AND (&amp;&amp;), OR (||) and NOT (!) with the usual precedence, parentheses group. A term is a test phase,
+ * device type, platform or tag, it can be made explicit with a prefix: "phase:", "tag:", "device:" or "platform:".
+ * A term without a prefix is a phase, device type or platform if it is one of their names and a tag otherwise.
+ * Phases and tags are matched against the @TestTags of the test, device types and platforms against the device the
+ * test instance runs on. The expression is parsed once and evaluated for every test method instance.
+ */
+public abstract class TagExpression {
+
+	/**
+	 * @param deviceType the device type of the test instance, null if the test doesn't run against a device
+	 * @param platform the platform of the test instance, null if the test doesn't run against a device
+	 */
+	public abstract boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform);
+
+	/**
+	 * Parses the expression, reporting an error (which stops the run) if it isn't valid.
+	 */
+	public static TagExpression parse(String expression) {
+		return new Parser(expression).parse();
+	}
+
+	private static final class And extends TagExpression {
+		private final TagExpression left;
+		private final TagExpression right;
+
+		private And(TagExpression left, TagExpression right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return left.matches(testTags, deviceType, platform) && right.matches(testTags, deviceType, platform);
+		}
+
+		public String toString() {
+			return "(" + left + " AND " + right + ")";
+		}
+	}
+
+	private static final class Or extends TagExpression {
+		private final TagExpression left;
+		private final TagExpression right;
+
+		private Or(TagExpression left, TagExpression right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return left.matches(testTags, deviceType, platform) || right.matches(testTags, deviceType, platform);
+		}
+
+		public String toString() {
+			return "(" + left + " OR " + right + ")";
+		}
+	}
+
+	private static final class Not extends TagExpression {
+		private final TagExpression operand;
+
+		private Not(TagExpression operand) {
+			this.operand = operand;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return !operand.matches(testTags, deviceType, platform);
+		}
+
+		public String toString() {
+			return "NOT " + operand;
+		}
+	}
+
+	private static final class PhaseTerm extends TagExpression {
+		private final Phase phase;
+
+		private PhaseTerm(Phase phase) {
+			this.phase = phase;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return testTags.hasPhase(phase);
+		}
+
+		public String toString() {
+			return "phase:" + phase.name().toLowerCase();
+		}
+	}
+
+	private static final class TagTerm extends TagExpression {
+		private final String tag;
+
+		private TagTerm(String tag) {
+			this.tag = tag;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return testTags.hasTag(tag);
+		}
+
+		public String toString() {
+			return "tag:" + tag;
+		}
+	}
+
+	private static final class DeviceTypeTerm extends TagExpression {
+		private final DeviceType deviceType;
+
+		private DeviceTypeTerm(DeviceType deviceType) {
+			this.deviceType = deviceType;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return this.deviceType == deviceType;
+		}
+
+		public String toString() {
+			return "device:" + deviceType.name().toLowerCase();
+		}
+	}
+
+	private static final class PlatformTerm extends TagExpression {
+		private final Platform platform;
+
+		private PlatformTerm(Platform platform) {
+			this.platform = platform;
+		}
+
+		public boolean matches(CompiledTestTags testTags, DeviceType deviceType, Platform platform) {
+			return this.platform == platform;
+		}
+
+		public String toString() {
+			return "platform:" + platform.name().toLowerCase();
+		}
+	}
+
+	/**
+	 * Recursive descent parser, OR binds loosest then AND then NOT.
+	 */
+	private static final class Parser {
+		private final String expression;
+		private final List<String> tokens = new ArrayList<String>();
+		private final List<Integer> positions = new ArrayList<Integer>();
+		private int next;
+
+		private Parser(String expression) {
+			this.expression = expression;
+			tokenize();
+		}
+
+		private TagExpression parse() {
+			if (tokens.isEmpty()) {
+				fail("the expression is empty", 0);
+			}
+			TagExpression parsed = parseOr();
+			if (next < tokens.size()) {
+				fail("unexpected [" + tokens.get(next) + "]", positions.get(next));
+			}
+			return parsed;
+		}
+
+		private TagExpression parseOr() {
+			TagExpression left = parseAnd();
+			while (accept("OR", "||", "|")) {
+				left = new Or(left, parseAnd());
+			}
+			return left;
+		}
+
+		private TagExpression parseAnd() {
+			TagExpression left = parseNot();
+			while (accept("AND", "&&", "&")) {
+				left = new And(left, parseNot());
+			}
+			return left;
+		}
+
+		private TagExpression parseNot() {
+			if (accept("NOT", "!")) {
+				return new Not(parseNot());
+			}
+			if (accept("(")) {
+				TagExpression grouped = parseOr();
+				if (!accept(")")) {
+					fail("missing [)]", next < tokens.size() ? positions.get(next) : expression.length());
+				}
+				return grouped;
+			}
+			if (next >= tokens.size()) {
+				fail("the expression ends where a term was expected", expression.length());
+			}
+			int position = positions.get(next);
+			String token = tokens.get(next++);
+			if (isOperator(token)) {
+				fail("unexpected [" + token + "] where a term was expected", position);
+			}
+			return term(token, position);
+		}
+
+		private TagExpression term(String token, int position) {
+			String value = token.toLowerCase();
+			int colon = value.indexOf(':');
+			if (colon < 0) {
+				Phase phase = toEnum(Phase.class, value);
+				if (phase != null) {
+					return new PhaseTerm(phase);
+				}
+				DeviceType deviceType = toEnum(DeviceType.class, value);
+				if (deviceType != null) {
+					return new DeviceTypeTerm(deviceType);
+				}
+				Platform platform = toEnum(Platform.class, value);
+				if (platform != null) {
+					return new PlatformTerm(platform);
+				}
+				return new TagTerm(value);
+			}
+
+			String kind = value.substring(0, colon);
+			String name = value.substring(colon + 1);
+			if (kind.equals("tag")) {
+				return new TagTerm(name);
+			}
+			if (kind.equals("phase")) {
+				return new PhaseTerm(requireEnum(Phase.class, name, position));
+			}
+			if (kind.equals("device") || kind.equals("devicetype")) {
+				return new DeviceTypeTerm(requireEnum(DeviceType.class, name, position));
+			}
+			if (kind.equals("platform")) {
+				return new PlatformTerm(requireEnum(Platform.class, name, position));
+			}
+			fail("unknown term type [" + kind + "], expected tag, phase, device or platform", position);
+			return null;
+		}
+
+		private <E extends Enum<E>> E requireEnum(Class<E> clazz, String name, int position) {
+			E value = toEnum(clazz, name);
+			if (value == null) {
+				fail("[" + name + "] is not a valid " + clazz.getSimpleName(), position);
+			}
+			return value;
+		}
+
+		private static <E extends Enum<E>> E toEnum(Class<E> clazz, String name) {
+			for (E constant : clazz.getEnumConstants()) {
+				// NOT_DEFINED is only an annotation default, it can't be selected on.
+				if (!constant.name().equals("NOT_DEFINED") && constant.name().equalsIgnoreCase(name)) {
+					return constant;
+				}
+			}
+			return null;
+		}
+
+		private boolean accept(String... alternatives) {
+			if (next < tokens.size()) {
+				for (String alternative : alternatives) {
+					if (alternative.equalsIgnoreCase(tokens.get(next))) {
+						next++;
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private static boolean isOperator(String token) {
+			String upper = token.toUpperCase();
+			return upper.equals("AND") || upper.equals("OR") || upper.equals("NOT") || upper.equals(")") || upper.startsWith("&") || upper.startsWith("|")
+					|| upper.equals("!");
+		}
+
+		private void tokenize() {
+			int i = 0;
+			while (i < expression.length()) {
+				char c = expression.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (c == '(' || c == ')' || c == '!') {
+					add(String.valueOf(c), i);
+					i++;
+				} else if (c == '&' || c == '|') {
+					int length = i + 1 < expression.length() && expression.charAt(i + 1) == c ? 2 : 1;
+					add(expression.substring(i, i + length), i);
+					i += length;
+				} else if (isTermCharacter(c)) {
+					int start = i;
+					while (i < expression.length() && isTermCharacter(expression.charAt(i))) {
+						i++;
+					}
+					add(expression.substring(start, i), start);
+				} else {
+					fail("unexpected character [" + c + "]", i);
+				}
+			}
+		}
+
+		private static boolean isTermCharacter(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+		}
+
+		private void add(String token, int position) {
+			tokens.add(token);
+			positions.add(position);
+		}
+
+		private void fail(String message, int position) {
+			Reporter.error("The test filter [" + expression + "] is invalid at position [" + position + "], " + message);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.qa.basetest;
+
+import com.qa.pageobjects.ElementCache;
+import com.qa.utils.DriverHttpClientFactory;
+import com.qa.utils.Reporter;
+import com.qa.utils.Timeline;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Adds every test method to the Timeline and, at the end of the suite, writes the per device timeline as a Chrome trace
+ * (target/timeline.json) and the p50/p95/p99 latency of every timed operation together with the element cache hit rate
+ * and driver connection reuse (target/latency-report.txt).
+ */
+public class TimelineListener implements ITestListener, ISuiteListener {
+
+    private static final String TRACE_FILE = "target" + File.separator + "timeline.json";
+    private static final String REPORT_FILE = "target" + File.separator + "latency-report.txt";
+
+    public void onStart(ISuite suite) {
+    }
+
+    public void onFinish(ISuite suite) {
+        String table = Timeline.formatLatencyTable() + ElementCache.formatStatistics() + System.lineSeparator()
+                + DriverHttpClientFactory.getInstance().formatStatistics() + System.lineSeparator();
+        Reporter.info("Suite [" + suite.getName() + "] recorded [" + Timeline.getSpanCount() + "] timed operations, timeline in [" + TRACE_FILE + "]\n" + table);
+        try {
+            Timeline.writeChromeTrace(new File(TRACE_FILE));
+        } catch (IOException e) {
+            Reporter.info("Unable to write the timeline [" + TRACE_FILE + "] due to [" + e.getMessage() + "]");
+        }
+        File reportFile = new File(REPORT_FILE);
+        reportFile.getParentFile().mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+            writer.write(table);
+        } catch (IOException e) {
+            Reporter.info("Unable to write the latency report [" + REPORT_FILE + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    public void onTestSuccess(ITestResult result) {
+        record(result);
+    }
+
+    public void onTestFailure(ITestResult result) {
+        record(result);
+    }
+
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        record(result);
+    }
+
+    public void onTestSkipped(ITestResult result) {
+    }
+
+    public void onTestStart(ITestResult result) {
+    }
+
+    public void onStart(ITestContext context) {
+    }
+
+    public void onFinish(ITestContext context) {
+    }
+
+    private void record(ITestResult result) {
+        String device = result.getInstance() instanceof MultiDeviceBaseTest ? ((MultiDeviceBaseTest) result.getInstance()).getDeviceConfig().getName() : null;
+        Timeline.record("test", device, result.getMethod().getRealClass().getSimpleName() + "." + result.getMethod().getMethodName(), result.getStartMillis(),
+                result.getEndMillis() - result.getStartMillis());
+    }
+}
@@ -0,0 +1,106 @@
+package com.qa.basetest;
+
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+import org.testng.IExecutorServiceFactory;
+import org.testng.TestNG;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the TestNG workers, and so every device test instance, on virtual threads (mvn test -Pvirtual-threads).
+ *
+ * A device test spends nearly all its time waiting on the device, a waiting virtual thread gives its carrier thread
+ * back so hundreds of devices don't need hundreds of OS threads. At most virtual_thread_max_instances instances run at
+ * once, the others wait for a permit (cheaply, they are virtual threads too).
+ */
+public class VirtualThreadExecutorFactory implements IExecutorServiceFactory {
+
+    private final int maxInstances;
+
+    public VirtualThreadExecutorFactory() {
+        this((int) PropertiesHelper.getLongProperty(PropertiesHelper.getProperties("/test.properties"), "virtual_thread_max_instances", 500));
+    }
+
+    public VirtualThreadExecutorFactory(int maxInstances) {
+        this.maxInstances = Math.max(1, maxInstances);
+    }
+
+    /**
+     * Runs the suite files (testng.xml by default) with the test instances on virtual threads, used by the
+     * virtual-threads maven profile. Unlike TestNG's own main it doesn't exit the JVM, a failed run throws instead.
+     */
+    public static void main(String[] args) {
+        TestNG testng = new TestNG();
+        testng.setExecutorServiceFactory(new VirtualThreadExecutorFactory());
+        testng.setTestSuites(Arrays.asList(args.length > 0 ? args : new String[] { "testng.xml" }));
+        testng.setOutputDirectory("target/surefire-reports");
+        testng.run();
+        if (testng.getStatus() != 0) {
+            throw new IllegalStateException("The suite failed with status [" + testng.getStatus() + "]");
+        }
+    }
+
+    /**
+     * The pool sizes, queue and thread factory TestNG asks for are ignored, every task gets its own virtual thread.
+     */
+    public ExecutorService create(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
+        Reporter.info("Running test instances on virtual threads, at most [" + maxInstances + "] at once");
+        return new BoundedVirtualThreadExecutor(maxInstances);
+    }
+
+    /**
+     * A thread per task executor whose tasks wait for one of a fixed number of permits before they run.
+     */
+    public static class BoundedVirtualThreadExecutor extends AbstractExecutorService {
+
+        private final ExecutorService threads = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("device-instance-", 1).factory());
+        private final Semaphore permits;
+
+        public BoundedVirtualThreadExecutor(int maxRunning) {
+            this.permits = new Semaphore(maxRunning, true);
+        }
+
+        public void execute(final Runnable task) {
+            // the permit is taken on the new thread so the caller never blocks.
+            threads.execute(new Runnable() {
+                public void run() {
+                    permits.acquireUninterruptibly();
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        public void shutdown() {
+            threads.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+            return threads.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+            return threads.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return threads.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return threads.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.qa.basetest.devices;
+
+import com.qa.utils.DeviceCatalogCache;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory view of the device sheet as DeviceConfig records, with hash indexes on the columns we filter on.
+ * Queries are answered by combining the per value row sets (see DeviceQuery) instead of scanning every row per value.
+ */
+public class DeviceCatalog {
+
+    public static final String[] INDEXED_COLUMNS = { DeviceConfig.NAME, DeviceConfig.PLATFORM_NAME, DeviceConfig.PLATFORM_VERSION, DeviceConfig.DEVICE_TYPE };
+
+    private final ArrayList<DeviceConfig> devices;
+    private final ConcurrentHashMap<String, HashMap<String, BitSet>> indexes = new ConcurrentHashMap<String, HashMap<String, BitSet>>();
+
+    public DeviceCatalog(ArrayList<DeviceConfig> devices) {
+        this.devices = devices;
+        for (String column : INDEXED_COLUMNS) {
+            index(column);
+        }
+    }
+
+    /**
+     * Loads the sheet (through the catalog cache) and converts every row to a DeviceConfig straight away, the rows aren't kept.
+     */
+    public static DeviceCatalog load(String excelFilePath, String sheetName) {
+        ArrayList<Object[]> rows = new DeviceCatalogCache().retrieveAllRows(excelFilePath, sheetName);
+        ArrayList<DeviceConfig> devices = new ArrayList<DeviceConfig>(rows.size());
+        for (Object[] row : rows) {
+            // the sheet readers hand every row over as a HashMap<String, Object>.
+            @SuppressWarnings("unchecked")
+            HashMap<String, Object> values = (HashMap<String, Object>) row[0];
+            devices.add(DeviceConfig.fromMap(values));
+        }
+        return new DeviceCatalog(devices);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Returns the matching devices in sheet order.
+     */
+    public ArrayList<DeviceConfig> select(DeviceQuery query) {
+        BitSet matches = query.evaluate(this);
+        ArrayList<DeviceConfig> selected = new ArrayList<DeviceConfig>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            selected.add(devices.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the matching devices in the Object[] { deviceConfig } shape the data providers hand to TestNG.
+     */
+    public Iterator<Object[]> iterator(DeviceQuery query) {
+        ArrayList<Object[]> parameters = new ArrayList<Object[]>();
+        for (DeviceConfig deviceConfig : select(query)) {
+            parameters.add(new Object[] { deviceConfig });
+        }
+        return parameters.iterator();
+    }
+
+    BitSet all() {
+        BitSet all = new BitSet(devices.size());
+        all.set(0, devices.size());
+        return all;
+    }
+
+    BitSet matching(String column, String value) {
+        BitSet matches = index(column).get(value);
+        return matches == null ? new BitSet() : (BitSet) matches.clone();
+    }
+
+    BitSet matchingPrefix(String column, String prefix) {
+        BitSet matches = new BitSet();
+        // the number of distinct values per column is small compared to the devices, so walking the keys is cheap.
+        for (Map.Entry<String, BitSet> entry : index(column).entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                matches.or(entry.getValue());
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Columns outside INDEXED_COLUMNS are indexed the first time they are queried.
+     */
+    private HashMap<String, BitSet> index(String column) {
+        HashMap<String, BitSet> index = indexes.get(column);
+        if (index == null) {
+            index = new HashMap<String, BitSet>();
+            for (int i = 0; i < devices.size(); i++) {
+                Object value = devices.get(i).get(column);
+                if (value != null && !value.toString().isEmpty()) {
+                    BitSet rowSet = index.get(value.toString());
+                    if (rowSet == null) {
+                        rowSet = new BitSet(devices.size());
+                        index.put(value.toString(), rowSet);
+                    }
+                    rowSet.set(i);
+                }
+            }
+            HashMap<String, BitSet> existing = indexes.putIfAbsent(column, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,151 @@
+package com.qa.basetest.devices;
+
+import com.qa.basetest.tags.DeviceType;
+import com.qa.basetest.tags.Platform;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable configuration of a single device from the device sheet.
+ *
+ * The columns we filter and schedule on are typed fields, every other non blank column is kept as an extra desired capability.
+ */
+public final class DeviceConfig {
+
+    public static final String NAME = "name";
+    public static final String PLATFORM_NAME = "platformName";
+    public static final String PLATFORM_VERSION = "platformVersion";
+    public static final String DEVICE_TYPE = "deviceType";
+
+    private final String name;
+    private final String platformName;
+    private final Platform platform;
+    private final String platformVersion;
+    private final String deviceTypeName;
+    private final DeviceType deviceType;
+    private final Map<String, Object> extraCapabilities;
+
+    private DeviceConfig(String name, String platformName, String platformVersion, String deviceTypeName, Map<String, Object> extraCapabilities) {
+        this.name = name;
+        this.platformName = platformName;
+        this.platform = toEnum(Platform.class, platformName, Platform.NOT_DEFINED);
+        this.platformVersion = platformVersion;
+        this.deviceTypeName = deviceTypeName;
+        this.deviceType = toEnum(DeviceType.class, deviceTypeName, DeviceType.NOT_DEFINED);
+        this.extraCapabilities = extraCapabilities;
+    }
+
+    /**
+     * Creates the config from a device sheet row, blank cells are dropped.
+     */
+    public static DeviceConfig fromMap(Map<String, Object> row) {
+        Map<String, Object> extraCapabilities = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> cell : row.entrySet()) {
+            if (!isBlank(cell.getValue()) && !isTypedColumn(cell.getKey())) {
+                extraCapabilities.put(cell.getKey(), cell.getValue());
+            }
+        }
+        return new DeviceConfig(stringValue(row, NAME), stringValue(row, PLATFORM_NAME), stringValue(row, PLATFORM_VERSION),
+                stringValue(row, DEVICE_TYPE), extraCapabilities.isEmpty() ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(extraCapabilities));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the platform name as written in the sheet, e.g. "iOS"
+     */
+    public String getPlatformName() {
+        return platformName;
+    }
+
+    public Platform getPlatform() {
+        return platform;
+    }
+
+    public String getPlatformVersion() {
+        return platformVersion;
+    }
+
+    /**
+     * @return the device type as written in the sheet, e.g. "phone"
+     */
+    public String getDeviceTypeName() {
+        return deviceTypeName;
+    }
+
+    public DeviceType getDeviceType() {
+        return deviceType;
+    }
+
+    public Map<String, Object> getExtraCapabilities() {
+        return extraCapabilities;
+    }
+
+    /**
+     * Returns the value of a sheet column, null if the cell was blank.
+     */
+    public Object get(String column) {
+        switch (column) {
+            case NAME:
+                return name;
+            case PLATFORM_NAME:
+                return platformName;
+            case PLATFORM_VERSION:
+                return platformVersion;
+            case DEVICE_TYPE:
+                return deviceTypeName;
+            default:
+                return extraCapabilities.get(column);
+        }
+    }
+
+    /**
+     * HashMap view of the config for code written against the original device sheet rows.
+     */
+    public HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = new HashMap<String, Object>(extraCapabilities);
+        putIfNotBlank(map, NAME, name);
+        putIfNotBlank(map, PLATFORM_NAME, platformName);
+        putIfNotBlank(map, PLATFORM_VERSION, platformVersion);
+        putIfNotBlank(map, DEVICE_TYPE, deviceTypeName);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceConfig[name=" + name + ", platform=" + platform + ", platformVersion=" + platformVersion + ", deviceType=" + deviceType + "]";
+    }
+
+    private static boolean isTypedColumn(String column) {
+        return NAME.equals(column) || PLATFORM_NAME.equals(column) || PLATFORM_VERSION.equals(column) || DEVICE_TYPE.equals(column);
+    }
+
+    private static boolean isBlank(Object value) {
+        return value == null || value.toString().isEmpty();
+    }
+
+    private static String stringValue(Map<String, Object> row, String column) {
+        Object value = row.get(column);
+        return isBlank(value) ? "" : value.toString();
+    }
+
+    private static void putIfNotBlank(HashMap<String, Object> map, String key, String value) {
+        if (!value.isEmpty()) {
+            map.put(key, value);
+        }
+    }
+
+    private static <E extends Enum<E>> E toEnum(Class<E> clazz, String value, E defaultValue) {
+        for (E constant : clazz.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value)) {
+                return constant;
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,293 @@
+package com.qa.basetest.devices;
+
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+import com.qa.utils.Timeline;
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Probes device sessions with a cheap status command and quarantines the devices that keep failing or answering slowly.
+ *
+ * A probe is bad when the session errors or answers slower than device_probe_max_latency ms; a device with
+ * device_quarantine_bad_probes bad probes among its last device_probe_window ones is quarantined for
+ * device_quarantine_time ms. device_health_store keeps one "device, quarantined until (0 if it isn't), probes, bad
+ * probes, total latency ms, highest latency ms, reason" line (tab separated) per device probed, the latency summary
+ * adding up over the runs. The file is rewritten, dropping the expired quarantines, whenever a device is quarantined and
+ * when the suite ends, so it never grows past the devices in the sheet. It lives outside target/ so the next run leaves
+ * the quarantined devices out of getDevices.
+ */
+public class DeviceHealth {
+
+    private static final DeviceHealth INSTANCE = new DeviceHealth(PropertiesHelper.getProperties("/test.properties"), storeFile());
+
+    private final File file;
+    private final long maxLatencyMillis;
+    private final int window;
+    private final int badProbesToQuarantine;
+    private final long quarantineMillis;
+    private final long probeIntervalMillis;
+    private final HashMap<String, ArrayDeque<Boolean>> recentProbes = new HashMap<String, ArrayDeque<Boolean>>();
+    private final HashMap<String, Long> quarantinedUntil = new HashMap<String, Long>();
+    private final HashMap<String, String> quarantineReasons = new HashMap<String, String>();
+    private final HashMap<String, LatencySummary> summaries = new HashMap<String, LatencySummary>();
+    private int probes;
+    private int badProbes;
+    private int quarantined;
+
+    public DeviceHealth(Properties properties, File file) {
+        this.file = file;
+        this.maxLatencyMillis = Math.max(1, PropertiesHelper.getLongProperty(properties, "device_probe_max_latency", 10000));
+        this.window = (int) Math.max(1, PropertiesHelper.getLongProperty(properties, "device_probe_window", 5));
+        this.badProbesToQuarantine = (int) Math.min(window, Math.max(1, PropertiesHelper.getLongProperty(properties, "device_quarantine_bad_probes", 2)));
+        this.quarantineMillis = Math.max(0, PropertiesHelper.getLongProperty(properties, "device_quarantine_time", 3600000));
+        this.probeIntervalMillis = Math.max(0, PropertiesHelper.getLongProperty(properties, "device_probe_interval", 30000));
+        load(file, quarantinedUntil, quarantineReasons, summaries);
+    }
+
+    public static DeviceHealth getInstance() {
+        return INSTANCE;
+    }
+
+    private static File storeFile() {
+        String path = PropertiesHelper.getProperties("/test.properties").getProperty("device_health_store");
+        if (path == null || path.trim().isEmpty() || path.startsWith("${")) {
+            path = System.getProperty("user.home") + File.separator + ".realdevice-testng" + File.separator + "device-health.tsv";
+        }
+        return new File(path);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return how often (ms) idle sessions are probed, 0 if they aren't
+     */
+    public long getProbeIntervalMillis() {
+        return probeIntervalMillis;
+    }
+
+    /**
+     * Asks the session for its details and records how long it took.
+     *
+     * @return false if the session errored, in which case it shouldn't be used any more
+     */
+    public boolean probe(String deviceName, AppiumDriver<WebElement> driver) {
+        long start = System.currentTimeMillis();
+        boolean answered;
+        try {
+            answered = Timeline.time("session.probe", () -> driver.getSessionId() != null && driver.getSessionDetails() != null);
+        } catch (WebDriverException e) {
+            answered = false;
+        }
+        record(deviceName, System.currentTimeMillis() - start, answered);
+        return answered;
+    }
+
+    /**
+     * How the probes of a device went so far, over this run and the earlier ones kept in the store.
+     */
+    public static final class LatencySummary {
+        private long probes;
+        private long badProbes;
+        private long totalLatencyMillis;
+        private long maxLatencyMillis;
+
+        private LatencySummary(long probes, long badProbes, long totalLatencyMillis, long maxLatencyMillis) {
+            this.probes = probes;
+            this.badProbes = badProbes;
+            this.totalLatencyMillis = totalLatencyMillis;
+            this.maxLatencyMillis = maxLatencyMillis;
+        }
+
+        public long getProbes() {
+            return probes;
+        }
+
+        public long getBadProbes() {
+            return badProbes;
+        }
+
+        public long getMeanLatencyMillis() {
+            return probes == 0 ? 0 : totalLatencyMillis / probes;
+        }
+
+        public long getMaxLatencyMillis() {
+            return maxLatencyMillis;
+        }
+    }
+
+    /**
+     * @return a copy of the device's latency summary, null if it was never probed
+     */
+    public synchronized LatencySummary getLatencySummary(String deviceName) {
+        LatencySummary summary = summaries.get(deviceName);
+        return summary == null ? null : new LatencySummary(summary.probes, summary.badProbes, summary.totalLatencyMillis, summary.maxLatencyMillis);
+    }
+
+    public synchronized boolean isQuarantined(String deviceName) {
+        Long until = quarantinedUntil.get(deviceName);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    /**
+     * Leaves out the devices that are quarantined, by this run or by a recent one.
+     */
+    public ArrayList<DeviceConfig> filter(List<DeviceConfig> devices) {
+        ArrayList<DeviceConfig> healthy = new ArrayList<DeviceConfig>(devices.size());
+        List<String> left = new ArrayList<String>();
+        for (DeviceConfig device : devices) {
+            if (isQuarantined(device.getName())) {
+                left.add(device.getName());
+            } else {
+                healthy.add(device);
+            }
+        }
+        if (!left.isEmpty()) {
+            Reporter.info("Leaving out the quarantined devices " + left + ", see [" + file + "]");
+        }
+        return healthy;
+    }
+
+    public synchronized String formatStatistics() {
+        return "Device health probes [" + probes + "] of which slow or failed [" + badProbes + "], devices quarantined [" + quarantined + "]";
+    }
+
+    /**
+     * Rewrites the store with the latency summaries and the quarantines that are still running.
+     */
+    public synchronized void close() {
+        if (!summaries.isEmpty() || !quarantinedUntil.isEmpty() || file.isFile()) {
+            save();
+        }
+    }
+
+    void record(String deviceName, long latencyMillis, boolean answered) {
+        String status = !answered ? "error" : latencyMillis > maxLatencyMillis ? "slow" : "ok";
+        String quarantineReason = null;
+        synchronized (this) {
+            probes++;
+            ArrayDeque<Boolean> recent = recentProbes.get(deviceName);
+            if (recent == null) {
+                recent = new ArrayDeque<Boolean>();
+                recentProbes.put(deviceName, recent);
+            }
+            recent.addLast(status.equals("ok"));
+            if (recent.size() > window) {
+                recent.removeFirst();
+            }
+            int bad = 0;
+            for (Boolean ok : recent) {
+                bad += ok ? 0 : 1;
+            }
+            badProbes += status.equals("ok") ? 0 : 1;
+            LatencySummary summary = summaries.get(deviceName);
+            if (summary == null) {
+                summary = new LatencySummary(0, 0, 0, 0);
+                summaries.put(deviceName, summary);
+            }
+            summary.probes++;
+            summary.badProbes += status.equals("ok") ? 0 : 1;
+            summary.totalLatencyMillis += latencyMillis;
+            summary.maxLatencyMillis = Math.max(summary.maxLatencyMillis, latencyMillis);
+            if (bad >= badProbesToQuarantine && !isQuarantined(deviceName)) {
+                quarantineReason = bad + " of the last " + recent.size() + " probes slow or failed, last one " + status + " after " + latencyMillis + " ms";
+                quarantinedUntil.put(deviceName, System.currentTimeMillis() + quarantineMillis);
+                quarantineReasons.put(deviceName, quarantineReason);
+                recent.clear();
+                quarantined++;
+                // saved straight away so a killed run still leaves its decisions behind.
+                save();
+            }
+        }
+        if (quarantineReason != null) {
+            Reporter.info("Quarantined device [" + deviceName + "] for [" + quarantineMillis + "] ms, " + quarantineReason);
+        }
+    }
+
+    private void save() {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temporary = new File(parent, file.getName() + ".tmp");
+        long now = System.currentTimeMillis();
+        try {
+            parent.mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+                Set<String> devices = new TreeSet<String>(summaries.keySet());
+                devices.addAll(quarantinedUntil.keySet());
+                for (String device : devices) {
+                    Long until = quarantinedUntil.get(device);
+                    boolean running = until != null && until > now;
+                    LatencySummary summary = summaries.get(device);
+                    if (summary == null && !running) {
+                        continue;
+                    }
+                    if (summary == null) {
+                        summary = new LatencySummary(0, 0, 0, 0);
+                    }
+                    String reason = running ? quarantineReasons.get(device) : null;
+                    writer.write(device + "\t" + (running ? until : 0) + "\t" + summary.probes + "\t" + summary.badProbes + "\t" + summary.totalLatencyMillis + "\t"
+                            + summary.maxLatencyMillis + "\t" + (reason == null ? "" : reason) + "\n");
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Reporter.info("Unable to write the device health store [" + file + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    /**
+     * Reads the latency summaries and the quarantines that haven't expired yet, static so the constructor doesn't hand
+     * out a half built instance.
+     */
+    private static void load(File file, Map<String, Long> quarantinedUntil, Map<String, String> quarantineReasons, Map<String, LatencySummary> summaries) {
+        if (!file.isFile()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 7);
+                if (fields.length < 6) {
+                    continue;
+                }
+                try {
+                    long until = Long.parseLong(fields[1]);
+                    LatencySummary summary = new LatencySummary(Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+                    summaries.put(fields[0], summary);
+                    if (until > now) {
+                        quarantinedUntil.put(fields[0], until);
+                        quarantineReasons.put(fields[0], fields.length > 6 ? fields[6] : "");
+                    }
+                } catch (NumberFormatException e) {
+                    // a line cut short by a killed run or written by an older version, skip it.
+                }
+            }
+        } catch (IOException e) {
+            Reporter.info("Unable to read the device health store [" + file + "] due to [" + e.getMessage() + "]");
+        }
+        Reporter.info("Loaded [" + summaries.size() + "] devices of which quarantined [" + quarantinedUntil.size() + "] from [" + file + "]");
+    }
+}
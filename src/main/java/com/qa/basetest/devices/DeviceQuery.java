@@ -0,0 +1,103 @@
+package com.qa.basetest.devices;
+
+import java.util.BitSet;
+
+/**
+ * A composable device filter evaluated against the DeviceCatalog indexes, e.g. iOS 11.x phones or a list of device names:
+ *
+ * <pre>
+ * DeviceQuery.column("platformName", "iOS")
+ *         .and(DeviceQuery.columnStartsWith("platformVersion", "11."))
+ *         .and(DeviceQuery.column("deviceType", "phone"))
+ *         .or(DeviceQuery.column("name", deviceNames));
+ * </pre>
+ */
+public abstract class DeviceQuery {
+
+    abstract BitSet evaluate(DeviceCatalog catalog);
+
+    public static DeviceQuery all() {
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                return catalog.all();
+            }
+        };
+    }
+
+    public static DeviceQuery none() {
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                return new BitSet();
+            }
+        };
+    }
+
+    /**
+     * Matches rows where the column equals any of the values.
+     */
+    public static DeviceQuery column(final String column, final String... values) {
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                BitSet matches = new BitSet();
+                for (String value : values) {
+                    matches.or(catalog.matching(column, value));
+                }
+                return matches;
+            }
+        };
+    }
+
+    public static DeviceQuery columnStartsWith(final String column, final String prefix) {
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                return catalog.matchingPrefix(column, prefix);
+            }
+        };
+    }
+
+    /**
+     * Matches a platform version, a trailing ".x" (e.g. "11.x") matches "11" and every "11.*" version.
+     */
+    public static DeviceQuery platformVersion(String platformVersion) {
+        if (platformVersion.endsWith(".x")) {
+            String major = platformVersion.substring(0, platformVersion.length() - 2);
+            return column("platformVersion", major).or(columnStartsWith("platformVersion", major + "."));
+        }
+        return column("platformVersion", platformVersion);
+    }
+
+    public DeviceQuery and(final DeviceQuery other) {
+        final DeviceQuery self = this;
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                BitSet matches = self.evaluate(catalog);
+                if (!matches.isEmpty()) {
+                    matches.and(other.evaluate(catalog));
+                }
+                return matches;
+            }
+        };
+    }
+
+    public DeviceQuery or(final DeviceQuery other) {
+        final DeviceQuery self = this;
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                BitSet matches = self.evaluate(catalog);
+                matches.or(other.evaluate(catalog));
+                return matches;
+            }
+        };
+    }
+
+    public DeviceQuery not() {
+        final DeviceQuery self = this;
+        return new DeviceQuery() {
+            BitSet evaluate(DeviceCatalog catalog) {
+                BitSet matches = catalog.all();
+                matches.andNot(self.evaluate(catalog));
+                return matches;
+            }
+        };
+    }
+}
@@ -0,0 +1,339 @@
+package com.qa.basetest.devices;
+
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which test instance gets to start on a device next.
+ *
+ * Every instance waits here on its TestNG thread before leasing its session. An instance is admitted when its
+ * device is free (a real device holds a single session) and fewer than max_concurrent_sessions sessions are open on the
+ * cloud account. Among the instances waiting for a free device the one with the longest expected duration goes first,
+ * so long running devices start early and the total wall clock time shrinks.
+ */
+public class DeviceScheduler {
+
+    private static final DeviceScheduler INSTANCE = new DeviceScheduler(
+            (int) PropertiesHelper.getLongProperty(PropertiesHelper.getProperties("/test.properties"), "max_concurrent_sessions", 3));
+
+    private final int maxConcurrentSessions;
+    private final Map<Object, ScheduledInstance> instances = new IdentityHashMap<Object, ScheduledInstance>();
+    private final Map<Object, ScheduledInstance> plan = new IdentityHashMap<Object, ScheduledInstance>();
+    private final Set<String> busyDevices = new HashSet<String>();
+    private int running;
+    //a lock rather than synchronized, so test instances on virtual threads waiting here don't pin their carrier threads.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+
+    public DeviceScheduler(int maxConcurrentSessions) {
+        this.maxConcurrentSessions = Math.max(1, maxConcurrentSessions);
+    }
+
+    public static DeviceScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    public int getMaxConcurrentSessions() {
+        return maxConcurrentSessions;
+    }
+
+    /**
+     * Registers a test instance that has test methods scheduled, called by the interceptor once the methods are filtered.
+     */
+    public void register(Object testInstance, String deviceName, long expectedDurationMillis) {
+        lock.lock();
+        try {
+            ScheduledInstance scheduled = instances.get(testInstance);
+            if (scheduled == null) {
+                scheduled = new ScheduledInstance(deviceName, expectedDurationMillis);
+                instances.put(testInstance, scheduled);
+                plan.put(testInstance, scheduled);
+            } else {
+                scheduled.expectedDurationMillis = expectedDurationMillis;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Expected busy time per device for everything registered in this run.
+     */
+    public Map<String, Long> getPlannedDurationPerDevice() {
+        lock.lock();
+        try {
+            Map<String, Long> perDevice = new TreeMap<String, Long>();
+            for (ScheduledInstance scheduled : plan.values()) {
+                Long planned = perDevice.get(scheduled.deviceName);
+                perDevice.put(scheduled.deviceName, (planned == null ? 0 : planned) + scheduled.expectedDurationMillis);
+            }
+            return perDevice;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The devices of the registered instances in the order the scheduler will start them (longest expected instance
+     * first), at most limit of them.
+     */
+    public List<String> getStartOrder(int limit) {
+        lock.lock();
+        try {
+            List<ScheduledInstance> pending = new ArrayList<ScheduledInstance>(instances.values());
+            Collections.sort(pending, new Comparator<ScheduledInstance>() {
+                public int compare(ScheduledInstance a, ScheduledInstance b) {
+                    return Long.compare(b.expectedDurationMillis, a.expectedDurationMillis);
+                }
+            });
+            List<String> devices = new ArrayList<String>();
+            for (ScheduledInstance scheduled : pending) {
+                if (devices.size() >= limit) {
+                    break;
+                }
+                if (!scheduled.running && !devices.contains(scheduled.deviceName)) {
+                    devices.add(scheduled.deviceName);
+                }
+            }
+            return devices;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Predicts the wall clock time of the run by replaying the scheduling rules (longest first, one session per device,
+     * max_concurrent_sessions at a time) over the expected durations.
+     */
+    public long predictMakespanMillis() {
+        lock.lock();
+        try {
+            List<ScheduledInstance> pending = new ArrayList<ScheduledInstance>(plan.values());
+            Collections.sort(pending, new Comparator<ScheduledInstance>() {
+                public int compare(ScheduledInstance a, ScheduledInstance b) {
+                    return Long.compare(b.expectedDurationMillis, a.expectedDurationMillis);
+                }
+            });
+            Map<String, Long> deviceBusyUntil = new HashMap<String, Long>();
+            List<Long> runningUntil = new ArrayList<Long>();
+            long now = 0;
+            long makespan = 0;
+            while (!pending.isEmpty()) {
+                Iterator<ScheduledInstance> candidates = pending.iterator();
+                while (candidates.hasNext() && runningUntil.size() < maxConcurrentSessions) {
+                    ScheduledInstance candidate = candidates.next();
+                    Long busyUntil = deviceBusyUntil.get(candidate.deviceName);
+                    if (busyUntil == null || busyUntil <= now) {
+                        long end = now + candidate.expectedDurationMillis;
+                        deviceBusyUntil.put(candidate.deviceName, end);
+                        runningUntil.add(end);
+                        makespan = Math.max(makespan, end);
+                        candidates.remove();
+                    }
+                }
+                if (runningUntil.isEmpty()) {
+                    break;
+                }
+                // move on to the next time an instance finishes.
+                now = Collections.min(runningUntil);
+                Iterator<Long> running = runningUntil.iterator();
+                while (running.hasNext()) {
+                    if (running.next() <= now) {
+                        running.remove();
+                    }
+                }
+            }
+            return makespan;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getExpectedDurationMillis(Object testInstance) {
+        lock.lock();
+        try {
+            ScheduledInstance scheduled = instances.get(testInstance);
+            return scheduled == null ? 0 : scheduled.expectedDurationMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the instance may start on its device.
+     */
+    public void admit(Object testInstance, String deviceName) {
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            ScheduledInstance scheduled = instances.get(testInstance);
+            if (scheduled == null) {
+                // not seen by the interceptor (e.g. a test outside the suite), schedule it with no expected duration.
+                scheduled = new ScheduledInstance(deviceName, 0);
+                instances.put(testInstance, scheduled);
+            }
+            scheduled.waiting = true;
+            while (!canStart(scheduled)) {
+                try {
+                    stateChanged.await();
+                } catch (InterruptedException e) {
+                    scheduled.waiting = false;
+                    Thread.currentThread().interrupt();
+                    Reporter.error("Interrupted while waiting for device [" + deviceName + "] to be scheduled");
+                }
+            }
+            scheduled.waiting = false;
+            scheduled.running = true;
+            busyDevices.add(deviceName);
+            running++;
+            // other waiters may have been blocked behind this one.
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // make sure idle sessions on other devices don't push the account over its limit.
+        DeviceSessionPool.getInstance().evictIdleSessions(deviceName, maxConcurrentSessions - runningSessions());
+        Reporter.info("Device [" + deviceName + "] scheduled after waiting [" + (System.currentTimeMillis() - start) + "] ms, running sessions ["
+                + runningSessions() + "/" + maxConcurrentSessions + "]");
+    }
+
+    /**
+     * Frees the device and the concurrency slot held by the instance.
+     */
+    public void complete(Object testInstance) {
+        lock.lock();
+        try {
+            ScheduledInstance scheduled = instances.remove(testInstance);
+            if (scheduled != null && scheduled.running) {
+                busyDevices.remove(scheduled.deviceName);
+                releaseClaim(scheduled);
+                running--;
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Books another device for a running instance that wants to move to it (e.g. an equivalent device when its own has
+     * no session), so no other instance is admitted to it meanwhile. The instance keeps its own device until reassign.
+     *
+     * @return false if the device is in use by another instance
+     */
+    public boolean claim(Object testInstance, String deviceName) {
+        lock.lock();
+        try {
+            if (busyDevices.contains(deviceName)) {
+                return false;
+            }
+            ScheduledInstance scheduled = instances.get(testInstance);
+            if (scheduled != null && scheduled.running) {
+                releaseClaim(scheduled);
+                scheduled.claimedDevice = deviceName;
+                busyDevices.add(deviceName);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the device booked by claim, the instance stays on its own device.
+     */
+    public void unclaim(Object testInstance) {
+        lock.lock();
+        try {
+            ScheduledInstance scheduled = instances.get(testInstance);
+            if (scheduled != null && releaseClaim(scheduled)) {
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the instance to the device it claimed and frees the device it was admitted to.
+     */
+    public void reassign(Object testInstance, String deviceName) {
+        lock.lock();
+        try {
+            ScheduledInstance scheduled = instances.get(testInstance);
+            if (scheduled == null || scheduled.deviceName.equals(deviceName)) {
+                return;
+            }
+            if (scheduled.running) {
+                busyDevices.remove(scheduled.deviceName);
+                busyDevices.add(deviceName);
+                if (deviceName.equals(scheduled.claimedDevice)) {
+                    scheduled.claimedDevice = null;
+                }
+                stateChanged.signalAll();
+            }
+            scheduled.deviceName = deviceName;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean releaseClaim(ScheduledInstance scheduled) {
+        if (scheduled.claimedDevice == null) {
+            return false;
+        }
+        busyDevices.remove(scheduled.claimedDevice);
+        scheduled.claimedDevice = null;
+        return true;
+    }
+
+    private int runningSessions() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canStart(ScheduledInstance candidate) {
+        if (running >= maxConcurrentSessions || busyDevices.contains(candidate.deviceName)) {
+            return false;
+        }
+        // only start if no waiting instance that could also start now is expected to take longer.
+        for (ScheduledInstance other : instances.values()) {
+            if (other != candidate && other.waiting && !busyDevices.contains(other.deviceName)
+                    && other.expectedDurationMillis > candidate.expectedDurationMillis) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class ScheduledInstance {
+        private String deviceName;
+        private String claimedDevice;
+        private long expectedDurationMillis;
+        private boolean waiting;
+        private boolean running;
+
+        private ScheduledInstance(String deviceName, long expectedDurationMillis) {
+            this.deviceName = deviceName;
+            this.expectedDurationMillis = expectedDurationMillis;
+        }
+    }
+}
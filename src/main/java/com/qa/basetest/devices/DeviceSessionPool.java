@@ -0,0 +1,494 @@
+package com.qa.basetest.devices;
+
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one Appium session per real device and hands it out to the test instances running against that device.
+ *
+ * A real device can only hold a single session, so a lease blocks while another instance holds the device. Returned
+ * sessions stay open for the next test class and are quit once they have been idle for longer than
+ * device_session_max_idle milliseconds. Every session is probed (see DeviceHealth) before it is handed out, and idle
+ * sessions every device_probe_interval milliseconds.
+ *
+ * Sessions can be pre-warmed: opened concurrently before the first test asks for them, leases of a device whose
+ * session is still being opened wait for it and leases of a device whose pre-warming failed fail straight away.
+ */
+public class DeviceSessionPool {
+
+    public interface SessionFactory {
+        AppiumDriver<WebElement> createSession(DeviceConfig deviceConfig);
+    }
+
+    private static final DeviceSessionPool INSTANCE = new DeviceSessionPool(
+            PropertiesHelper.getLongProperty(PropertiesHelper.getProperties("/test.properties"), "device_session_max_idle", 60000));
+
+    private final ConcurrentHashMap<String, DeviceSlot> slots = new ConcurrentHashMap<String, DeviceSlot>();
+    private final long maxIdleMillis;
+    private final DeviceHealth health;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicInteger sessionsCreated = new AtomicInteger();
+    private final AtomicInteger sessionsReused = new AtomicInteger();
+    private final AtomicInteger sessionsEvicted = new AtomicInteger();
+    private final AtomicInteger sessionsPrewarmed = new AtomicInteger();
+
+    public DeviceSessionPool(long maxIdleMillis) {
+        this(maxIdleMillis, DeviceHealth.getInstance());
+    }
+
+    public DeviceSessionPool(long maxIdleMillis, DeviceHealth health) {
+        this.maxIdleMillis = maxIdleMillis;
+        this.health = health;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "device-session-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long evictionInterval = Math.max(1000, maxIdleMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdleSessions();
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+        if (health.getProbeIntervalMillis() > 0) {
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    probeIdleSessions();
+                }
+            }, health.getProbeIntervalMillis(), health.getProbeIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static DeviceSessionPool getInstance() {
+        return INSTANCE;
+    }
+
+    public DeviceHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Returns a healthy session for the device, reusing the idle one when there is one. Blocks while the device is leased.
+     */
+    public AppiumDriver<WebElement> lease(DeviceConfig deviceConfig, SessionFactory sessionFactory) {
+        DeviceSlot slot = slotFor(deviceConfig);
+        AppiumDriver<WebElement> idleDriver = slot.acquire();
+        if (slot.failure != null) {
+            slot.release(null);
+            Reporter.error("No session for device [" + deviceConfig.getName() + "], pre-warming it failed due to [" + slot.failure + "]");
+        }
+        return open(slot, idleDriver, deviceConfig, sessionFactory);
+    }
+
+    /**
+     * Same as lease but only if nobody holds the device right now (and pre-warming it didn't fail), returns null otherwise.
+     */
+    public AppiumDriver<WebElement> tryLease(DeviceConfig deviceConfig, SessionFactory sessionFactory) {
+        DeviceSlot slot = slotFor(deviceConfig);
+        if (slot.failure != null || !slot.tryLease()) {
+            return null;
+        }
+        return open(slot, slot.takeLeasedIdle(), deviceConfig, sessionFactory);
+    }
+
+    /**
+     * @return why pre-warming the session of the device failed, null if it didn't
+     */
+    public String getFailure(DeviceConfig deviceConfig) {
+        return slotFor(deviceConfig).failure;
+    }
+
+    /**
+     * Forgets that pre-warming the session of the device failed, so the next lease opens a session again.
+     *
+     * @return why pre-warming it failed, null if it didn't
+     */
+    public String clearFailure(DeviceConfig deviceConfig) {
+        return slotFor(deviceConfig).clearFailure();
+    }
+
+    private AppiumDriver<WebElement> open(DeviceSlot slot, AppiumDriver<WebElement> idleDriver, DeviceConfig deviceConfig, SessionFactory sessionFactory) {
+        if (idleDriver != null) {
+            if (health.probe(deviceConfig.getName(), idleDriver) && !health.isQuarantined(deviceConfig.getName())) {
+                sessionsReused.incrementAndGet();
+                Reporter.info("Reusing the open session for device [" + deviceConfig.getName() + "]");
+                return idleDriver;
+            }
+            Reporter.info("The idle session for device [" + deviceConfig.getName() + "] is no longer usable, creating a new one");
+            quitQuietly(idleDriver);
+        }
+
+        try {
+            AppiumDriver<WebElement> driver = sessionFactory.createSession(deviceConfig);
+            sessionsCreated.incrementAndGet();
+            if (!health.probe(deviceConfig.getName(), driver) || health.isQuarantined(deviceConfig.getName())) {
+                quitQuietly(driver);
+                Reporter.error("The new session for device [" + deviceConfig.getName() + "] failed its health probe");
+            }
+            return driver;
+        } catch (RuntimeException e) {
+            // nobody holds the device now, let the next instance have a go.
+            slot.release(null);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a session on each of the devices at the same time, on at most the given number of threads, and keeps them
+     * idle in the pool for the first lease. Returns straight away; a session that isn't open within the timeout is
+     * quit once it does open and the device is marked as failed.
+     */
+    public void prewarm(Map<DeviceConfig, SessionFactory> devices, int threads, final long timeoutMillis) {
+        if (devices.isEmpty()) {
+            return;
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, devices.size())), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "session-prewarm-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final Map.Entry<DeviceConfig, SessionFactory> device : devices.entrySet()) {
+            final DeviceSlot slot = slotFor(device.getKey());
+            // skip devices that already have a session, or are being used.
+            if (!slot.tryAcquire()) {
+                continue;
+            }
+            final String deviceName = device.getKey().getName();
+            final AtomicBoolean settled = new AtomicBoolean();
+            final long start = System.currentTimeMillis();
+            // the timeout is counted from now, queued devices wait for a thread within it too.
+            evictor.schedule(new Runnable() {
+                public void run() {
+                    if (settled.compareAndSet(false, true)) {
+                        slot.fail("no session after " + timeoutMillis + " ms");
+                        Reporter.info("Pre-warming the session for device [" + deviceName + "] timed out after [" + timeoutMillis + "] ms");
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            executor.execute(new Runnable() {
+                public void run() {
+                    Reporter.setDevice(deviceName);
+                    AppiumDriver<WebElement> driver = null;
+                    String failure = null;
+                    try {
+                        driver = device.getValue().createSession(device.getKey());
+                    } catch (RuntimeException e) {
+                        failure = e.getMessage();
+                    } finally {
+                        Reporter.clearContext();
+                    }
+                    if (!settled.compareAndSet(false, true)) {
+                        // timed out, nobody is waiting for this session any more.
+                        if (driver != null) {
+                            quitQuietly(driver);
+                        }
+                    } else if (driver != null) {
+                        sessionsCreated.incrementAndGet();
+                        sessionsPrewarmed.incrementAndGet();
+                        slot.release(driver);
+                        Reporter.info("Pre-warmed the session for device [" + deviceName + "] in [" + (System.currentTimeMillis() - start) + "] ms");
+                    } else {
+                        slot.fail(String.valueOf(failure));
+                        Reporter.info("Pre-warming the session for device [" + deviceName + "] failed due to [" + failure + "]");
+                    }
+                }
+            });
+        }
+        // the threads finish the queued devices and then go away.
+        executor.shutdown();
+    }
+
+    /**
+     * Hands the session back so the next test class on the same device can reuse it.
+     */
+    public void release(DeviceConfig deviceConfig, AppiumDriver<WebElement> driver) {
+        slotFor(deviceConfig).release(driver);
+    }
+
+    /**
+     * Quits the session instead of returning it, e.g. when the test left the device in an unknown state.
+     */
+    public void discard(DeviceConfig deviceConfig, AppiumDriver<WebElement> driver) {
+        quitQuietly(driver);
+        slotFor(deviceConfig).release(null);
+    }
+
+    /**
+     * Quits every idle session, called at the end of the suite.
+     */
+    public void shutdown() {
+        for (DeviceSlot slot : slots.values()) {
+            AppiumDriver<WebElement> idleDriver = slot.takeIdle(0);
+            if (idleDriver != null) {
+                quitQuietly(idleDriver);
+            }
+        }
+        Reporter.info("Device session pool closed, sessions created [" + sessionsCreated.get() + "] of which pre-warmed [" + sessionsPrewarmed.get()
+                + "], reused [" + sessionsReused.get() + "], evicted after being idle [" + sessionsEvicted.get() + "]");
+    }
+
+    public int getSessionsCreated() {
+        return sessionsCreated.get();
+    }
+
+    public int getSessionsReused() {
+        return sessionsReused.get();
+    }
+
+    public int getSessionsPrewarmed() {
+        return sessionsPrewarmed.get();
+    }
+
+    /**
+     * Quits the longest idle sessions of other devices until at most allowedIdleSessions of them remain open.
+     */
+    public void evictIdleSessions(String exceptDeviceName, int allowedIdleSessions) {
+        while (true) {
+            DeviceSlot oldest = null;
+            int idleSessions = 0;
+            for (Map.Entry<String, DeviceSlot> slot : slots.entrySet()) {
+                if (!slot.getKey().equals(exceptDeviceName) && slot.getValue().idleSince() >= 0) {
+                    idleSessions++;
+                    if (oldest == null || slot.getValue().idleSince() < oldest.idleSince()) {
+                        oldest = slot.getValue();
+                    }
+                }
+            }
+            if (idleSessions <= Math.max(0, allowedIdleSessions)) {
+                return;
+            }
+            AppiumDriver<WebElement> idleDriver = oldest.takeIdle(0);
+            if (idleDriver != null) {
+                sessionsEvicted.incrementAndGet();
+                quitQuietly(idleDriver);
+            }
+        }
+    }
+
+    private void evictIdleSessions() {
+        List<AppiumDriver<WebElement>> evicted = new ArrayList<AppiumDriver<WebElement>>();
+        for (DeviceSlot slot : slots.values()) {
+            AppiumDriver<WebElement> idleDriver = slot.takeIdle(maxIdleMillis);
+            if (idleDriver != null) {
+                evicted.add(idleDriver);
+            }
+        }
+        for (AppiumDriver<WebElement> driver : evicted) {
+            sessionsEvicted.incrementAndGet();
+            quitQuietly(driver);
+        }
+    }
+
+    private DeviceSlot slotFor(DeviceConfig deviceConfig) {
+        DeviceSlot slot = slots.get(deviceConfig.getName());
+        if (slot == null) {
+            DeviceSlot newSlot = new DeviceSlot();
+            slot = slots.putIfAbsent(deviceConfig.getName(), newSlot);
+            if (slot == null) {
+                slot = newSlot;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Probes the sessions nobody is using, quitting those that no longer answer.
+     */
+    private void probeIdleSessions() {
+        for (Map.Entry<String, DeviceSlot> slot : slots.entrySet()) {
+            if (slot.getValue().idleSince() < 0 || !slot.getValue().tryLease()) {
+                continue;
+            }
+            long idleSince = slot.getValue().idleSince;
+            AppiumDriver<WebElement> idleDriver = slot.getValue().takeLeasedIdle();
+            if (idleDriver == null) {
+                slot.getValue().release(null);
+            } else if (health.probe(slot.getKey(), idleDriver)) {
+                // still idle since it was returned, probing doesn't keep it from being evicted.
+                slot.getValue().returnIdle(idleDriver, idleSince);
+            } else {
+                Reporter.info("The idle session for device [" + slot.getKey() + "] no longer answers, quitting it");
+                quitQuietly(idleDriver);
+                slot.getValue().release(null);
+            }
+        }
+    }
+
+    private static void quitQuietly(AppiumDriver<WebElement> driver) {
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            Reporter.info("Unable to quit session [" + driver.getSessionId() + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    /**
+     * The single session a device can hold, either leased to a test instance or idle.
+     */
+    private static class DeviceSlot {
+        //a lock rather than synchronized, waiting for the device doesn't pin the carrier of a virtual thread. it is fair,
+        //so the instances waiting for the same device get it in the order they asked for it.
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final Condition returned = lock.newCondition();
+        private boolean leased;
+        private AppiumDriver<WebElement> idleDriver;
+        private long idleSince;
+        // why pre-warming the session failed, leases fail fast instead of trying again.
+        private volatile String failure;
+
+        private AppiumDriver<WebElement> acquire() {
+            lock.lock();
+            try {
+                while (leased) {
+                    try {
+                        returned.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        Reporter.error("Interrupted while waiting for the device session to be returned");
+                    }
+                }
+                leased = true;
+                AppiumDriver<WebElement> driver = idleDriver;
+                idleDriver = null;
+                return driver;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes the device for pre-warming, only if it is neither leased nor holding an idle session.
+         */
+        private boolean tryAcquire() {
+            lock.lock();
+            try {
+                if (leased || idleDriver != null) {
+                    return false;
+                }
+                leased = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes the device only if it isn't leased, keeping its idle session (see takeLeasedIdle).
+         */
+        private boolean tryLease() {
+            lock.lock();
+            try {
+                if (leased) {
+                    return false;
+                }
+                leased = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private AppiumDriver<WebElement> takeLeasedIdle() {
+            lock.lock();
+            try {
+                AppiumDriver<WebElement> driver = idleDriver;
+                idleDriver = null;
+                return driver;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail(String reason) {
+            lock.lock();
+            try {
+                failure = reason;
+                release(null);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private String clearFailure() {
+            lock.lock();
+            try {
+                String reason = failure;
+                failure = null;
+                return reason;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void returnIdle(AppiumDriver<WebElement> driver, long since) {
+            lock.lock();
+            try {
+                release(driver);
+                idleSince = since;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(AppiumDriver<WebElement> driver) {
+            lock.lock();
+            try {
+                leased = false;
+                idleDriver = driver;
+                idleSince = System.currentTimeMillis();
+                returned.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return when the idle session was returned, -1 if there is no idle session
+         */
+        private long idleSince() {
+            lock.lock();
+            try {
+                return leased || idleDriver == null ? -1 : idleSince;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private AppiumDriver<WebElement> takeIdle(long minIdleMillis) {
+            lock.lock();
+            try {
+                if (leased || idleDriver == null || System.currentTimeMillis() - idleSince < minIdleMillis) {
+                    return null;
+                }
+                AppiumDriver<WebElement> driver = idleDriver;
+                idleDriver = null;
+                return driver;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.qa.basetest.devices;
+
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Append only record of how long each test method took on each device, used to predict how long an instance will run.
+ *
+ * Every line is "timestamp, method, device, duration ms, status" separated by tabs. The file lives outside target/
+ * (see duration_store) so the history survives "mvn clean". Estimates are exponentially weighted so recent runs count most.
+ */
+public class DurationStore {
+
+    public static final long DEFAULT_METHOD_DURATION_MILLIS = 60000;
+
+    private static final double WEIGHT_OF_LATEST_RUN = 0.3;
+    private static final DurationStore INSTANCE = new DurationStore(storeFile());
+
+    private final File file;
+    private final HashMap<String, Double> perMethodAndDevice = new HashMap<String, Double>();
+    private final HashMap<String, Double> perMethod = new HashMap<String, Double>();
+    private Writer writer;
+
+    public DurationStore(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static DurationStore getInstance() {
+        return INSTANCE;
+    }
+
+    private static File storeFile() {
+        String path = PropertiesHelper.getProperties("/test.properties").getProperty("duration_store");
+        if (path == null || path.trim().isEmpty() || path.startsWith("${")) {
+            path = System.getProperty("user.home") + File.separator + ".realdevice-testng" + File.separator + "durations.tsv";
+        }
+        return new File(path);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Expected duration of the method on the device, falling back to the method on any device and then to DEFAULT_METHOD_DURATION_MILLIS.
+     */
+    public synchronized long estimate(String method, String deviceName) {
+        Double duration = perMethodAndDevice.get(method + "\t" + deviceName);
+        if (duration == null) {
+            duration = perMethod.get(method);
+        }
+        return duration == null ? DEFAULT_METHOD_DURATION_MILLIS : duration.longValue();
+    }
+
+    public synchronized void record(String method, String deviceName, long durationMillis, String status) {
+        update(method, deviceName, durationMillis);
+        try {
+            if (writer == null) {
+                file.getParentFile().mkdirs();
+                writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+            }
+            writer.write(System.currentTimeMillis() + "\t" + method + "\t" + deviceName + "\t" + durationMillis + "\t" + status + "\n");
+            // flush every line so a killed run still leaves its timings behind.
+            writer.flush();
+        } catch (IOException e) {
+            Reporter.info("Unable to record the duration of [" + method + "] in [" + file + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Reporter.info("Unable to close the duration store [" + file + "] due to [" + e.getMessage() + "]");
+            }
+            writer = null;
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length >= 4) {
+                    try {
+                        update(fields[1], fields[2], Long.parseLong(fields[3]));
+                        lines++;
+                    } catch (NumberFormatException e) {
+                        // a line cut short by a killed run, skip it.
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Reporter.info("Unable to read the duration store [" + file + "] due to [" + e.getMessage() + "]");
+        }
+        Reporter.info("Loaded [" + lines + "] recorded test durations from [" + file + "]");
+    }
+
+    private void update(String method, String deviceName, long durationMillis) {
+        updateAverage(perMethodAndDevice, method + "\t" + deviceName, durationMillis);
+        updateAverage(perMethod, method, durationMillis);
+    }
+
+    private static void updateAverage(HashMap<String, Double> averages, String key, long durationMillis) {
+        Double average = averages.get(key);
+        averages.put(key, average == null ? durationMillis : average + WEIGHT_OF_LATEST_RUN * (durationMillis - average));
+    }
+}
@@ -0,0 +1,297 @@
+package com.qa.basetest.devices;
+
+import com.qa.utils.PropertiesHelper;
+import com.qa.utils.Reporter;
+import com.qa.utils.Timeline;
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gets a session for a test instance from the DeviceSessionPool when the device farm is contended.
+ *
+ * A failed session creation (e.g. the cloud reports the device as busy) is tried again after an exponential backoff
+ * with full jitter (session_retry_delay doubling up to session_retry_max_delay, session_retry_attempts times). Between
+ * attempts an equivalent device from the catalog (same platform, version and device type) that is free right now is
+ * used instead, unless session_fallback=false; the DeviceScheduler moves the instance to it so no other instance is
+ * admitted to it meanwhile. A device whose sessions fail device_circuit_failures times in a row is
+ * not tried again for device_circuit_open_time ms, after which a single attempt decides whether it is back; a failed
+ * pre-warm counts as one of those failures. Devices quarantined by DeviceHealth are not tried at all.
+ */
+public class SessionAcquirer {
+
+    private static final SessionAcquirer INSTANCE = new SessionAcquirer(PropertiesHelper.getProperties("/test.properties"));
+
+    private final int retryAttempts;
+    private final long retryDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final boolean fallback;
+    private final int circuitFailures;
+    private final long circuitOpenMillis;
+    private final DeviceSessionPool pool;
+    private final DeviceScheduler scheduler;
+    private final DeviceHealth health;
+    private final ConcurrentHashMap<String, CircuitBreaker> circuits = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger fallbacks = new AtomicInteger();
+    private final AtomicInteger circuitsOpened = new AtomicInteger();
+
+    public SessionAcquirer(Properties properties) {
+        this(properties, DeviceSessionPool.getInstance(), DeviceScheduler.getInstance(), DeviceSessionPool.getInstance().getHealth());
+    }
+
+    /**
+     * @param health where the quarantines are looked up, the same the pool probes its sessions with
+     */
+    public SessionAcquirer(Properties properties, DeviceSessionPool pool, DeviceScheduler scheduler, DeviceHealth health) {
+        this.retryAttempts = (int) Math.max(0, PropertiesHelper.getLongProperty(properties, "session_retry_attempts", 3));
+        this.retryDelayMillis = Math.max(1, PropertiesHelper.getLongProperty(properties, "session_retry_delay", 5000));
+        this.retryMaxDelayMillis = Math.max(retryDelayMillis, PropertiesHelper.getLongProperty(properties, "session_retry_max_delay", 60000));
+        this.fallback = !"false".equalsIgnoreCase(String.valueOf(properties.getProperty("session_fallback")).trim());
+        this.circuitFailures = (int) Math.max(1, PropertiesHelper.getLongProperty(properties, "device_circuit_failures", 3));
+        this.circuitOpenMillis = Math.max(0, PropertiesHelper.getLongProperty(properties, "device_circuit_open_time", 300000));
+        this.pool = pool;
+        this.scheduler = scheduler;
+        this.health = health;
+    }
+
+    public static SessionAcquirer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * A session and the device it was opened on, which is an equivalent device when the requested one wasn't available.
+     */
+    public static final class Lease {
+        private final DeviceConfig deviceConfig;
+        private final AppiumDriver<WebElement> driver;
+
+        private Lease(DeviceConfig deviceConfig, AppiumDriver<WebElement> driver) {
+            this.deviceConfig = deviceConfig;
+            this.driver = driver;
+        }
+
+        public DeviceConfig getDeviceConfig() {
+            return deviceConfig;
+        }
+
+        public AppiumDriver<WebElement> getDriver() {
+            return driver;
+        }
+    }
+
+    /**
+     * Leases a session on the device the test instance was admitted to by the scheduler, or on an equivalent device of
+     * the catalog (null for no fallback) to which the instance is then reassigned. Fails through Reporter.error once
+     * every attempt failed.
+     */
+    public Lease acquire(Object testInstance, DeviceConfig deviceConfig, DeviceCatalog catalog, DeviceSessionPool.SessionFactory sessionFactory) {
+        String lastFailure = null;
+        for (int attempt = 0; ; attempt++) {
+            boolean quarantined = false;
+            CircuitBreaker circuit = circuitFor(deviceConfig.getName());
+            // a failed pre-warm counts as a failed attempt, the device is still tried for real.
+            String prewarmFailure = pool.clearFailure(deviceConfig);
+            if (prewarmFailure != null) {
+                lastFailure = prewarmFailure;
+                failed(deviceConfig.getName(), circuit);
+            }
+            if (health.isQuarantined(deviceConfig.getName())) {
+                lastFailure = "quarantined, see " + health.getFile();
+                quarantined = true;
+            } else if (circuit.allowAttempt()) {
+                try {
+                    AppiumDriver<WebElement> driver = pool.lease(deviceConfig, sessionFactory);
+                    circuit.succeeded();
+                    return new Lease(deviceConfig, driver);
+                } catch (RuntimeException e) {
+                    lastFailure = firstLine(e.getMessage());
+                    failed(deviceConfig.getName(), circuit);
+                }
+            } else {
+                lastFailure = "failed " + circuitFailures + " times in a row, not tried again for now";
+            }
+
+            Lease equivalent = fallback && catalog != null ? leaseEquivalent(testInstance, deviceConfig, catalog, sessionFactory) : null;
+            if (equivalent != null) {
+                fallbacks.incrementAndGet();
+                Reporter.info("Running against device [" + equivalent.getDeviceConfig().getName() + "] instead of [" + deviceConfig.getName() + "] which failed due to ["
+                        + lastFailure + "]");
+                return equivalent;
+            }
+            // a quarantine outlasts any backoff, fail fast.
+            if (attempt >= retryAttempts || quarantined) {
+                Reporter.error("No session for device [" + deviceConfig.getName() + "] after [" + (attempt + 1) + "] attempts, last failure [" + lastFailure + "]");
+            }
+
+            long delay = backoffMillis(attempt);
+            retries.incrementAndGet();
+            Reporter.info("No session for device [" + deviceConfig.getName() + "] due to [" + lastFailure + "], trying again in [" + delay + "] ms");
+            try {
+                Timeline.time("session.backoff", () -> Thread.sleep(delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Reporter.error("Interrupted while waiting to try device [" + deviceConfig.getName() + "] again");
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random delay up to the exponential backoff of the attempt.
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = retryDelayMillis << Math.min(attempt, 30);
+        return ThreadLocalRandom.current().nextLong(Math.min(retryMaxDelayMillis, ceiling < 0 ? retryMaxDelayMillis : ceiling) + 1);
+    }
+
+    /**
+     * @return true if the device failed too often and is waiting out device_circuit_open_time
+     */
+    public boolean isCircuitOpen(String deviceName) {
+        CircuitBreaker circuit = circuits.get(deviceName);
+        return circuit != null && circuit.isOpen();
+    }
+
+    public int getRetries() {
+        return retries.get();
+    }
+
+    public int getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public int getCircuitsOpened() {
+        return circuitsOpened.get();
+    }
+
+    private Lease leaseEquivalent(Object testInstance, DeviceConfig deviceConfig, DeviceCatalog catalog, DeviceSessionPool.SessionFactory sessionFactory) {
+        for (DeviceConfig candidate : equivalentDevices(deviceConfig, catalog)) {
+            CircuitBreaker circuit = circuitFor(candidate.getName());
+            if (pool.clearFailure(candidate) != null) {
+                failed(candidate.getName(), circuit);
+            }
+            if (health.isQuarantined(candidate.getName())) {
+                continue;
+            }
+            // book it with the scheduler first, a device another instance was admitted to is in use even when idle.
+            if (!scheduler.claim(testInstance, candidate.getName())) {
+                continue;
+            }
+            if (!circuit.allowAttempt()) {
+                scheduler.unclaim(testInstance);
+                continue;
+            }
+            try {
+                AppiumDriver<WebElement> driver = pool.tryLease(candidate, sessionFactory);
+                if (driver == null) {
+                    // somebody is using it, give the trial back to the circuit.
+                    circuit.skipped();
+                    scheduler.unclaim(testInstance);
+                    continue;
+                }
+                circuit.succeeded();
+                scheduler.reassign(testInstance, candidate.getName());
+                return new Lease(candidate, driver);
+            } catch (RuntimeException e) {
+                scheduler.unclaim(testInstance);
+                failed(candidate.getName(), circuit);
+                Reporter.info("No session for the equivalent device [" + candidate.getName() + "] either due to [" + firstLine(e.getMessage()) + "]");
+            }
+        }
+        return null;
+    }
+
+    private static List<DeviceConfig> equivalentDevices(DeviceConfig deviceConfig, DeviceCatalog catalog) {
+        DeviceQuery query = DeviceQuery.column(DeviceConfig.PLATFORM_NAME, deviceConfig.getPlatformName())
+                .and(DeviceQuery.column(DeviceConfig.DEVICE_TYPE, deviceConfig.getDeviceTypeName()));
+        List<DeviceConfig> equivalent = new ArrayList<DeviceConfig>();
+        for (DeviceConfig candidate : catalog.select(query)) {
+            // compared here rather than in the query, a blank version (any version) only matches another blank one.
+            if (!candidate.getName().equals(deviceConfig.getName()) && candidate.getPlatformVersion().equals(deviceConfig.getPlatformVersion())) {
+                equivalent.add(candidate);
+            }
+        }
+        return equivalent;
+    }
+
+    /**
+     * WebDriverException messages carry the build and driver info on the following lines.
+     */
+    private static String firstLine(String message) {
+        return message == null ? null : message.split("\\R", 2)[0];
+    }
+
+    private void failed(String deviceName, CircuitBreaker circuit) {
+        if (circuit.failed()) {
+            circuitsOpened.incrementAndGet();
+            Reporter.info("Device [" + deviceName + "] failed [" + circuitFailures + "] times in a row, not trying it again for [" + circuitOpenMillis + "] ms");
+        }
+    }
+
+    private CircuitBreaker circuitFor(String deviceName) {
+        CircuitBreaker circuit = circuits.get(deviceName);
+        if (circuit == null) {
+            CircuitBreaker newCircuit = new CircuitBreaker();
+            circuit = circuits.putIfAbsent(deviceName, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * Closed while the device works, open for circuitOpenMillis after circuitFailures failures in a row, then half open:
+     * one attempt is let through, which closes it again or reopens it.
+     */
+    private class CircuitBreaker {
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean trialRunning;
+
+        private synchronized boolean allowAttempt() {
+            if (consecutiveFailures < circuitFailures) {
+                return true;
+            }
+            if (System.currentTimeMillis() < openUntil || trialRunning) {
+                return false;
+            }
+            trialRunning = true;
+            return true;
+        }
+
+        private synchronized boolean isOpen() {
+            return consecutiveFailures >= circuitFailures && System.currentTimeMillis() < openUntil;
+        }
+
+        private synchronized void succeeded() {
+            consecutiveFailures = 0;
+            trialRunning = false;
+        }
+
+        private synchronized void skipped() {
+            trialRunning = false;
+        }
+
+        /**
+         * @return true if this failure opened the circuit
+         */
+        private synchronized boolean failed() {
+            boolean wasTrial = trialRunning;
+            trialRunning = false;
+            consecutiveFailures++;
+            if (consecutiveFailures == circuitFailures || wasTrial) {
+                openUntil = System.currentTimeMillis() + circuitOpenMillis;
+                return true;
+            }
+            return false;
+        }
+    }
+}
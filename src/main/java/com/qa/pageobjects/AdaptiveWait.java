@@ -0,0 +1,106 @@
+package com.qa.pageobjects;
+
+import com.qa.utils.Reporter;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.qa.utils.TestUtils.pause;
+
+/**
+ * Waits for a condition by polling quickly at first and backing off exponentially up to the maximum poll time.
+ *
+ * How long a condition took to become true is remembered per device, locator and kind of wait (exponentially
+ * weighted), so the next wait for the same element sleeps about that long before its second check instead of
+ * stepping up to it. Like WebDriverWait a NotFoundException or StaleElementReferenceException counts as "not yet"
+ * and a TimeoutException is thrown when the condition isn't met in time.
+ */
+public class AdaptiveWait {
+
+    public static final long MIN_POLL_MILLIS = 50;
+
+    private static final double WEIGHT_OF_LATEST_WAIT = 0.3;
+    private static final ConcurrentHashMap<String, Double> READY_AFTER_MILLIS = new ConcurrentHashMap<String, Double>();
+
+    private final WebDriver driver;
+    private final long timeoutMillis;
+    private final long maxPollMillis;
+
+    public AdaptiveWait(WebDriver driver, long timeoutMillis, long maxPollMillis) {
+        this.driver = driver;
+        this.timeoutMillis = timeoutMillis;
+        this.maxPollMillis = Math.max(MIN_POLL_MILLIS, maxPollMillis);
+    }
+
+    /**
+     * Polls the condition until it returns something other than null or false.
+     *
+     * @param waitKey what is being waited for, e.g. the locator and the kind of wait, used to learn its usual latency
+     */
+    public <T> T until(String waitKey, ExpectedCondition<T> condition) {
+        String key = Reporter.getDevice() + "|" + waitKey;
+        Double learned = READY_AFTER_MILLIS.get(key);
+        long start = System.currentTimeMillis();
+        long nextPoll = MIN_POLL_MILLIS;
+        boolean firstSleep = true;
+        int checks = 0;
+        RuntimeException lastException = null;
+
+        while (true) {
+            checks++;
+            try {
+                T value = condition.apply(driver);
+                if (value != null && !Boolean.FALSE.equals(value)) {
+                    learn(key, System.currentTimeMillis() - start);
+                    return value;
+                }
+                lastException = null;
+            } catch (NotFoundException e) {
+                lastException = e;
+            } catch (StaleElementReferenceException e) {
+                lastException = e;
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+            if (elapsed >= timeoutMillis) {
+                throw new TimeoutException("Expected condition failed: waiting for " + condition + " (tried " + checks + " time(s) for " + elapsed
+                        + " ms with polling from " + MIN_POLL_MILLIS + " up to " + maxPollMillis + " ms)", lastException);
+            }
+
+            long sleep;
+            if (firstSleep && learned != null) {
+                // go straight to when this condition usually becomes true.
+                sleep = Math.max(MIN_POLL_MILLIS, Math.min(maxPollMillis, learned.longValue() - elapsed));
+            } else {
+                sleep = nextPoll;
+                nextPoll = Math.min(maxPollMillis, nextPoll * 2);
+            }
+            firstSleep = false;
+            pause(Math.min(sleep, timeoutMillis - elapsed));
+        }
+    }
+
+    /**
+     * @return the learned time the wait usually takes on the current device, null if it hasn't been seen yet
+     */
+    public static Double getLearnedMillis(String waitKey) {
+        return READY_AFTER_MILLIS.get(Reporter.getDevice() + "|" + waitKey);
+    }
+
+    private static void learn(String key, long readyAfterMillis) {
+        while (true) {
+            Double average = READY_AFTER_MILLIS.get(key);
+            if (average == null) {
+                if (READY_AFTER_MILLIS.putIfAbsent(key, (double) readyAfterMillis) == null) {
+                    return;
+                }
+            } else if (READY_AFTER_MILLIS.replace(key, average, average + WEIGHT_OF_LATEST_WAIT * (readyAfterMillis - average))) {
+                return;
+            }
+        }
+    }
+}
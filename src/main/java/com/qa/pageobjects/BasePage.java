@@ -1,85 +1,157 @@
 package com.qa.pageobjects;
 
 import com.qa.utils.Reporter;
+import com.qa.utils.Timeline;
 import io.appium.java_client.AppiumDriver;
 import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
-import static com.qa.utils.TestUtils.pause;
-
 public class BasePage {
 
     protected AppiumDriver appiumDriver;
     protected WebDriverWait waitDriver;
+    protected AdaptiveWait adaptiveWait;
+    private Boolean webContext;
+    private final ElementCache elementCache;
     private final Integer DEFAULT_TIME_OUT = 30;
-    //longer poll time than original 500 ms
-    private final Long DEFAULT_POLL_TIME = new Long(1000);
+    //upper bound for the poll time, waits start polling every 50 ms and back off to this.
+    private final Long DEFAULT_POLL_TIME = 1000L;
 
     public BasePage(AppiumDriver appiumDriver) {
         this.appiumDriver = appiumDriver;
         waitDriver = new WebDriverWait(appiumDriver, DEFAULT_TIME_OUT, DEFAULT_POLL_TIME);
+        adaptiveWait = new AdaptiveWait(appiumDriver, DEFAULT_TIME_OUT * 1000, DEFAULT_POLL_TIME);
+        elementCache = new ElementCache(appiumDriver);
     }
 
     public BasePage(AppiumDriver appiumDriver, Integer timeout, long pollTime) {
         this.appiumDriver = appiumDriver;
         waitDriver = new WebDriverWait(appiumDriver, timeout, pollTime);
+        adaptiveWait = new AdaptiveWait(appiumDriver, timeout * 1000L, pollTime);
+        elementCache = new ElementCache(appiumDriver);
     }
 
     public void clickBy(By by){
-        waitForElementToBeClickable(by);
-        appiumDriver.findElement(by).click();
-        Reporter.info("Clicked on button with by [" + by + "]");
+        //the wait hands back the element it found clickable, no need to locate it again.
+        Timeline.time("page.click", () -> waitForElementToBeClickable(by).click());
+        Reporter.info("Clicked on button with by [{}]", by);
     }
 
     protected void populateElementWithText(By by, String text) {
-        WebElement element = appiumDriver.findElement(by);
-        Reporter.info("Attempting to send the string [" + text + "] to element by [" + by + "]");
-        element.sendKeys(text);
+        Timeline.time("page.sendKeys", () -> {
+            WebElement element = findElement(by);
+            Reporter.info("Attempting to send the string [{}] to element by [{}]", text, by);
+            element.sendKeys(text);
+        });
     }
 
-    protected void waitForElementToBeSelected(By by) {
-        WebElement element = appiumDriver.findElement(by);
-        long startTime = System.currentTimeMillis();
-        long endTime = DEFAULT_TIME_OUT * 1000;
-        long elapsedTime = System.currentTimeMillis() - startTime;
-        try {
+    /**
+     * Returns the element from the page's element cache, only going to the device (timed as "driver.findElement") the
+     * first time or after the cache was invalidated. The element locates itself again if it has gone stale.
+     */
+    protected WebElement findElement(By by) {
+        return elementCache.get(by);
+    }
+
+    /**
+     * Forgets every located element, call it whenever the page navigates.
+     */
+    protected void invalidateElementCache() {
+        elementCache.invalidateAll();
+    }
+
+    /**
+     * @return true when testing a mobile browser, where element state can be read with a single script
+     */
+    protected boolean isWebContext() {
+        if (webContext == null) {
+            webContext = ElementState.isWebContext(appiumDriver);
+        }
+        return webContext;
+    }
 
-            while(elapsedTime < endTime) {
-                elapsedTime = System.currentTimeMillis() - startTime;
-                pause(DEFAULT_POLL_TIME);
-                if(element.getLocation().equals(appiumDriver.switchTo().activeElement().getLocation())) {
-                    Reporter.info("Waited for element with by [" + by + "] to be selected");
-                    return;
+    protected void waitForElementToBeSelected(final By by) {
+        try {
+            Timeline.time("wait.selected", () -> adaptiveWait.until("selected|" + by, new ExpectedCondition<Boolean>() {
+                public Boolean apply(WebDriver driver) {
+                    WebElement element = findElement(by);
+                    try {
+                        return ElementState.isActive(driver, element, isWebContext());
+                    } catch (StaleElementReferenceException e) {
+                        //scripts get the element unwrapped, locate it again on the next poll.
+                        elementCache.invalidate(by);
+                        throw e;
+                    }
                 }
-            }
-            throw new WebDriverException("Element was not selected after [" + DEFAULT_TIME_OUT + "] seconds");
 
+                @Override
+                public String toString() {
+                    return "element located by " + by + " to be selected";
+                }
+            }));
         } catch (WebDriverException e) {
             Reporter.error("Unable to find and wait for element to be selected with by [" + by + "] due to [" + e.getMessage() + "]");
         }
+        Reporter.info("Waited for element with by [{}] to be selected", by);
     }
 
-    protected void waitForElementToBeClickable(By by) {
+    /**
+     * Waits for the element to be displayed and enabled, locating it once per poll and reading its state in one batch.
+     *
+     * @return the clickable element
+     */
+    protected WebElement waitForElementToBeClickable(final By by) {
+        WebElement element = null;
         try {
-            waitDriver.until(ExpectedConditions.and(
-                                ExpectedConditions.presenceOfElementLocated(by),
-                                ExpectedConditions.visibilityOfElementLocated(by),
-                                ExpectedConditions.elementToBeClickable(by)));
+            element = Timeline.time("wait.clickable", () -> adaptiveWait.until("clickable|" + by, new ExpectedCondition<WebElement>() {
+                public WebElement apply(WebDriver driver) {
+                    WebElement candidate = findElement(by);
+                    try {
+                        return ElementState.of(driver, candidate, isWebContext(), false).isClickable() ? candidate : null;
+                    } catch (StaleElementReferenceException e) {
+                        //scripts get the element unwrapped, locate it again on the next poll.
+                        elementCache.invalidate(by);
+                        throw e;
+                    }
+                }
+
+                @Override
+                public String toString() {
+                    return "element located by " + by + " to be clickable";
+                }
+            }));
         } catch (WebDriverException e) {
             Reporter.error("Unable to find and wait for element with by [" + by + "] due to [" + e.getMessage() + "]");
         }
-        Reporter.info("Waited for element with by [" + by + "] to be clickable");
+        Reporter.info("Waited for element with by [{}] to be clickable", by);
+        return element;
     }
 
-    protected void waitForElementToBePresent(By by) {
+    /**
+     * @return the element once it is present
+     */
+    protected WebElement waitForElementToBePresent(final By by) {
+        WebElement element = null;
         try {
-            waitDriver.until(ExpectedConditions.presenceOfElementLocated(by));
+            element = Timeline.time("wait.present", () -> adaptiveWait.until("present|" + by, new ExpectedCondition<WebElement>() {
+                public WebElement apply(WebDriver driver) {
+                    return findElement(by);
+                }
+
+                @Override
+                public String toString() {
+                    return "presence of element located by " + by;
+                }
+            }));
         } catch (WebDriverException e) {
             Reporter.error("Unable to find and wait for element to be present with by [" + by + "] due to [" + e.getMessage() + "]");
         }
-        Reporter.info("Waited for element presence with by [" + by + "] to be present");
+        Reporter.info("Waited for element presence with by [{}] to be present", by);
+        return element;
     }
 }
@@ -0,0 +1,140 @@
+package com.qa.pageobjects;
+
+import com.qa.utils.Timeline;
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.interactions.internal.Locatable;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.internal.WrapsElement;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Elements a page has already located, keyed by their By, so repeated lookups of the same element don't go back to the device.
+ *
+ * The cached elements are wrappers that locate the element again and retry once when the device reports it as stale.
+ * A page invalidates its cache when it navigates, after which every lookup goes to the device again.
+ */
+public class ElementCache {
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong RELOCATED = new AtomicLong();
+
+    private final SearchContext searchContext;
+    private final Map<By, WebElement> elements = new HashMap<By, WebElement>();
+    //not synchronized, a virtual thread locating an element inside synchronized would pin its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ElementCache(SearchContext searchContext) {
+        this.searchContext = searchContext;
+    }
+
+    /**
+     * Returns the cached element or locates it, a NoSuchElementException is passed on and nothing is cached.
+     */
+    public WebElement get(By by) {
+        lock.lock();
+        try {
+            WebElement element = elements.get(by);
+            if (element != null) {
+                HITS.incrementAndGet();
+                return element;
+            }
+            MISSES.incrementAndGet();
+            element = wrap(by, locate(by));
+            elements.put(by, element);
+            return element;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(By by) {
+        lock.lock();
+        try {
+            elements.remove(by);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            elements.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static long getRelocated() {
+        return RELOCATED.get();
+    }
+
+    /**
+     * @return a one line summary of the hit rate across all pages
+     */
+    public static String formatStatistics() {
+        long hits = HITS.get();
+        long lookups = hits + MISSES.get();
+        return "Element cache hits [" + hits + "] of [" + lookups + "] lookups (" + (lookups == 0 ? 0 : hits * 100 / lookups) + "%), stale elements located again ["
+                + RELOCATED.get() + "]";
+    }
+
+    private WebElement locate(By by) {
+        return Timeline.time("driver.findElement", () -> searchContext.findElement(by));
+    }
+
+    private WebElement wrap(final By by, final WebElement located) {
+        return (WebElement) Proxy.newProxyInstance(ElementCache.class.getClassLoader(), new Class<?>[] { WebElement.class, WrapsElement.class, WrapsDriver.class, Locatable.class },
+                new InvocationHandler() {
+                    private WebElement current = located;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            if (method.getName().equals("equals")) {
+                                Object other = args[0] instanceof WrapsElement ? ((WrapsElement) args[0]).getWrappedElement() : args[0];
+                                return current.equals(other);
+                            }
+                            return method.invoke(current, args);
+                        }
+                        if (method.getName().equals("getWrappedElement")) {
+                            return current;
+                        }
+                        try {
+                            return method.invoke(current, args);
+                        } catch (InvocationTargetException e) {
+                            if (!(e.getCause() instanceof StaleElementReferenceException)) {
+                                throw e.getCause();
+                            }
+                        }
+                        // the page changed under us, find the element again and retry once.
+                        RELOCATED.incrementAndGet();
+                        current = locate(by);
+                        try {
+                            return method.invoke(current, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+}
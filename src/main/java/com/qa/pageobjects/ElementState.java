@@ -0,0 +1,101 @@
+package com.qa.pageobjects;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+
+import java.util.List;
+
+/**
+ * The displayed/enabled/location state of an element, read in as few round trips to the device as possible.
+ *
+ * In a web context the three values come back from a single executeScript call, in a native context displayed and
+ * enabled are asked for separately and the location only when it is needed.
+ */
+public final class ElementState {
+
+    private static final String STATE_SCRIPT = "var e = arguments[0];"
+            + "var style = window.getComputedStyle(e);"
+            + "var rect = e.getBoundingClientRect();"
+            + "var displayed = style.visibility !== 'hidden' && style.display !== 'none' && (rect.width > 0 || rect.height > 0 || e.getClientRects().length > 0);"
+            + "return [displayed, !e.disabled, Math.round(rect.left + window.pageXOffset), Math.round(rect.top + window.pageYOffset)];";
+    private static final String IS_ACTIVE_SCRIPT = "return arguments[0] === document.activeElement;";
+
+    private final WebElement element;
+    private final boolean displayed;
+    private final boolean enabled;
+    private final Point location;
+
+    private ElementState(WebElement element, boolean displayed, boolean enabled, Point location) {
+        this.element = element;
+        this.displayed = displayed;
+        this.enabled = enabled;
+        this.location = location;
+    }
+
+    /**
+     * Reads the state of the element, one round trip in a web context.
+     *
+     * @param withLocation whether the location is needed, only matters in a native context
+     */
+    public static ElementState of(WebDriver driver, WebElement element, boolean webContext, boolean withLocation) {
+        if (webContext) {
+            List<?> state = (List<?>) ((JavascriptExecutor) driver).executeScript(STATE_SCRIPT, element);
+            return new ElementState(element, Boolean.TRUE.equals(state.get(0)), Boolean.TRUE.equals(state.get(1)),
+                    new Point(((Number) state.get(2)).intValue(), ((Number) state.get(3)).intValue()));
+        }
+        boolean displayed = element.isDisplayed();
+        // no need to ask more of an element that isn't displayed.
+        boolean enabled = displayed && element.isEnabled();
+        return new ElementState(element, displayed, enabled, withLocation ? element.getLocation() : null);
+    }
+
+    /**
+     * Checks whether the element has the focus, one round trip in a web context.
+     */
+    public static boolean isActive(WebDriver driver, WebElement element, boolean webContext) {
+        if (webContext) {
+            return Boolean.TRUE.equals(((JavascriptExecutor) driver).executeScript(IS_ACTIVE_SCRIPT, element));
+        }
+        return element.getLocation().equals(driver.switchTo().activeElement().getLocation());
+    }
+
+    /**
+     * @return true if the driver is testing a mobile browser (browserName capability set), where scripts can be run
+     */
+    public static boolean isWebContext(WebDriver driver) {
+        try {
+            Object browserName = ((org.openqa.selenium.HasCapabilities) driver).getCapabilities().getCapability("browserName");
+            return browserName != null && !browserName.toString().isEmpty();
+        } catch (ClassCastException e) {
+            return false;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    public WebElement getElement() {
+        return element;
+    }
+
+    public boolean isDisplayed() {
+        return displayed;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the location, null if it wasn't asked for in a native context
+     */
+    public Point getLocation() {
+        return location;
+    }
+
+    public boolean isClickable() {
+        return displayed && enabled;
+    }
+}
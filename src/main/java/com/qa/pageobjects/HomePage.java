@@ -1,6 +1,7 @@
 package com.qa.pageobjects;
 
 import com.qa.utils.Reporter;
+import com.qa.utils.Timeline;
 import io.appium.java_client.AppiumDriver;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebElement;
@@ -22,7 +23,8 @@ public class HomePage extends BasePage {
 
     public void navigateTo() {
         String url = baseProperties.get("url").toString();
-        appiumDriver.get(url);
+        Timeline.time("page.navigate", () -> appiumDriver.get(url));
+        invalidateElementCache();
         Reporter.info("Navigated to [" + url + "]");
     }
 
@@ -31,9 +33,13 @@ public class HomePage extends BasePage {
     }
 
     public RegisterPage clickSignUpButton() {
-        waitForElementToBeClickable(signUpButton);
-        WebElement signupButton = (WebElement) appiumDriver.findElements(signUpButton).get(1);
-        signupButton.click();
+        Timeline.time("page.click", () -> {
+            waitForElementToBeClickable(signUpButton);
+            WebElement signupButton = Timeline.time("driver.findElements", () -> (WebElement) appiumDriver.findElements(signUpButton).get(1));
+            signupButton.click();
+        });
+        //we are on the registration page now.
+        invalidateElementCache();
         return new RegisterPage(appiumDriver);
     }
 
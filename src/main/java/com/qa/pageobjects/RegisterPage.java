@@ -48,14 +48,14 @@ public class RegisterPage extends BasePage {
     }
 
     public String getEmailField() {
-        return appiumDriver.findElement(emailField).getAttribute("value");
+        return findElement(emailField).getAttribute("value");
     }
 
     public String getUserNameField() {
-        return appiumDriver.findElement(userNameField).getAttribute("value");
+        return findElement(userNameField).getAttribute("value");
     }
 
     public boolean isSignUpButtonEnabled() {
-        return appiumDriver.findElement(signUpButton).isEnabled();
+        return findElement(signUpButton).isEnabled();
     }
 }
@@ -0,0 +1,83 @@
+package com.qa.utils;
+
+import com.qa.basetest.devices.DeviceConfig;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default desired capabilities, read once from the properties and shared by every device. The capabilities of a
+ * device are a copy of the defaults with the device's own values laid over them.
+ */
+public final class CapabilityTemplate {
+
+    private static final ConcurrentHashMap<String, CapabilityTemplate> TEMPLATES = new ConcurrentHashMap<String, CapabilityTemplate>();
+
+    private final Map<String, Object> defaults;
+
+    public CapabilityTemplate(Properties defaultProperties) {
+        Map<String, Object> capabilities = new HashMap<String, Object>();
+        for (String key : defaultProperties.stringPropertyNames()) {
+            capabilities.put(key, defaultProperties.getProperty(key));
+        }
+        this.defaults = Collections.unmodifiableMap(capabilities);
+    }
+
+    /**
+     * The template for the properties file on the classpath, built the first time it is asked for.
+     */
+    public static CapabilityTemplate forPropertiesFile(String propertiesFilePath) {
+        CapabilityTemplate template = TEMPLATES.get(propertiesFilePath);
+        if (template == null) {
+            CapabilityTemplate newTemplate = new CapabilityTemplate(PropertiesHelper.getProperties(propertiesFilePath));
+            template = TEMPLATES.putIfAbsent(propertiesFilePath, newTemplate);
+            if (template == null) {
+                template = newTemplate;
+            }
+        }
+        return template;
+    }
+
+    public Map<String, Object> getDefaults() {
+        return defaults;
+    }
+
+    public DesiredCapabilities create(DeviceConfig deviceConfig) {
+        DesiredCapabilities capabilities = new DesiredCapabilities(defaults);
+
+        //blank cells were already dropped when the device config was created.
+        for (Map.Entry<String, Object> capability : deviceConfig.getExtraCapabilities().entrySet()) {
+            capabilities.setCapability(capability.getKey(), capability.getValue());
+        }
+        setCapabilityIfNotEmpty(capabilities, DeviceConfig.NAME, deviceConfig.getName());
+        setCapabilityIfNotEmpty(capabilities, DeviceConfig.PLATFORM_NAME, deviceConfig.getPlatformName());
+        setCapabilityIfNotEmpty(capabilities, DeviceConfig.PLATFORM_VERSION, deviceConfig.getPlatformVersion());
+        setCapabilityIfNotEmpty(capabilities, DeviceConfig.DEVICE_TYPE, deviceConfig.getDeviceTypeName());
+        return capabilities;
+    }
+
+    public DesiredCapabilities create(Map<String, Object> deviceConfigMap) {
+        DesiredCapabilities capabilities = new DesiredCapabilities(defaults);
+
+        for (Map.Entry<String, Object> capability : deviceConfigMap.entrySet()) {
+            Object value = capability.getValue();
+            if (value != null) {
+                String text = value.toString();
+                if (!text.isEmpty() && !text.equalsIgnoreCase("name")) {
+                    capabilities.setCapability(capability.getKey(), value);
+                }
+            }
+        }
+        return capabilities;
+    }
+
+    private static void setCapabilityIfNotEmpty(DesiredCapabilities capabilities, String key, String value) {
+        if (!value.isEmpty()) {
+            capabilities.setCapability(key, value);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.qa.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a compact binary snapshot of a parsed device sheet under target/ so the xlsx only has to be parsed when it changes.
+ *
+ * The snapshot is keyed by the absolute path of the xlsx, the sheet name and the SHA-256 of the xlsx content. The source
+ * modification time and size are stored alongside the hash so an unchanged file is recognised without hashing it again.
+ * A snapshot that can't be read (e.g. cut short by a killed run) is deleted and rebuilt from the sheet.
+ */
+public class DeviceCatalogCache {
+
+    public static final String DEFAULT_CACHE_DIRECTORY = "target" + File.separator + "device-catalog";
+
+    private static final int MAGIC = 0x44455643;
+    private static final int VERSION = 2;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte NUMERIC_VALUE = 2;
+    private static final byte BOOLEAN_VALUE = 3;
+    private static final byte DATE_VALUE = 4;
+
+    private final File cacheDirectory;
+
+    public DeviceCatalogCache() {
+        this(new File(DEFAULT_CACHE_DIRECTORY));
+    }
+
+    public DeviceCatalogCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the rows of the sheet in the same shape as ExcelHelper.retrieveAllRows, from the snapshot when it is still valid.
+     */
+    public ArrayList<Object[]> retrieveAllRows(String excelFilePath, String sheetName) {
+        long start = System.nanoTime();
+        File source = new File(excelFilePath);
+        String sourcePath = sourcePath(source);
+        File cacheFile = cacheFileFor(excelFilePath, sheetName);
+
+        try {
+            String sourceHash = null;
+            try {
+                Header header = readHeader(cacheFile);
+                if (header != null && !header.matchesStamp(source, sourcePath, sheetName)) {
+                    // the file was touched, only rebuild the snapshot if the content really changed.
+                    sourceHash = hash(source);
+                    if (header.matchesHash(sourceHash, sourcePath, sheetName)) {
+                        restamp(cacheFile, source);
+                    } else {
+                        header = null;
+                    }
+                }
+
+                if (header != null) {
+                    ArrayList<Object[]> rows = readRows(cacheFile);
+                    Reporter.info("Loaded [" + rows.size() + "] devices from the catalog cache [" + cacheFile + "] in [" + elapsedMillis(start) + "] ms");
+                    return rows;
+                }
+            } catch (RuntimeException e) {
+                // truncated or corrupt, e.g. BufferUnderflowException, build it again from the sheet.
+                Reporter.info("Unable to read the device catalog cache [" + cacheFile + "] due to [" + e + "], rebuilding it");
+                Files.deleteIfExists(cacheFile.toPath());
+            }
+
+            ArrayList<Object[]> rows = new ExcelHelper().retrieveAllRows(excelFilePath, sheetName);
+            writeRows(cacheFile, source, sourceHash == null ? hash(source) : sourceHash, sourcePath, sheetName, rows);
+            Reporter.info("Parsed [" + rows.size() + "] devices from [" + excelFilePath + "] and rebuilt the catalog cache in [" + elapsedMillis(start) + "] ms");
+            return rows;
+        } catch (IOException e) {
+            Reporter.info("Unable to use the device catalog cache [" + cacheFile + "] due to [" + e.getMessage() + "], reading the sheet directly");
+            return new ExcelHelper().retrieveAllRows(excelFilePath, sheetName);
+        }
+    }
+
+    /**
+     * The snapshot of the sheet, named after the sheet and a hash of the workbook's absolute path so workbooks with the
+     * same sheet name don't share it.
+     */
+    public File cacheFileFor(String excelFilePath, String sheetName) {
+        String pathHash = sha256(sourcePath(new File(excelFilePath)).getBytes(StandardCharsets.UTF_8));
+        return new File(cacheDirectory, sheetName.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + pathHash.substring(0, 16) + ".bin");
+    }
+
+    private static String sourcePath(File source) {
+        return source.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private static String hash(File source) throws IOException {
+        try (InputStream in = new FileInputStream(source)) {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return hex(digest.digest());
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        return hex(sha256().digest(bytes));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Layout: magic, version, source mtime, source size, source hash, source path, sheet name, string table, column count,
+     * column name indexes, row count and then one tagged value per column for every row.
+     */
+    private void writeRows(File cacheFile, File source, String sourceHash, String sourcePath, String sheetName, ArrayList<Object[]> rows) throws IOException {
+        // every distinct string is written once and rows refer to it by index.
+        LinkedHashMap<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        LinkedHashMap<String, Integer> columns = new LinkedHashMap<String, Integer>();
+        for (Object[] a : rows) {
+            // ExcelHelper hands every row over as a HashMap<String, Object>.
+            @SuppressWarnings("unchecked")
+            HashMap<String, Object> row = (HashMap<String, Object>) a[0];
+            for (Map.Entry<String, Object> cell : row.entrySet()) {
+                if (!columns.containsKey(cell.getKey())) {
+                    columns.put(cell.getKey(), columns.size());
+                }
+                indexString(strings, cell.getKey());
+                if (cell.getValue() instanceof String) {
+                    indexString(strings, (String) cell.getValue());
+                }
+            }
+        }
+
+        cacheDirectory.mkdirs();
+        File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDirectory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.lastModified());
+            out.writeLong(source.length());
+            out.writeUTF(sourceHash);
+            out.writeUTF(sourcePath);
+            out.writeUTF(sheetName);
+
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(columns.size());
+            for (String column : columns.keySet()) {
+                out.writeInt(strings.get(column));
+            }
+
+            out.writeInt(rows.size());
+            for (Object[] a : rows) {
+                @SuppressWarnings("unchecked")
+                HashMap<String, Object> row = (HashMap<String, Object>) a[0];
+                for (String column : columns.keySet()) {
+                    writeValue(out, strings, row.containsKey(column), row.get(column));
+                }
+            }
+        }
+        // move the finished snapshot in place so parallel runs never see a half written file.
+        Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void indexString(LinkedHashMap<String, Integer> strings, String value) {
+        if (!strings.containsKey(value)) {
+            strings.put(value, strings.size());
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, LinkedHashMap<String, Integer> strings, boolean present, Object value) throws IOException {
+        if (!present) {
+            // -1 marks a column that isn't in this row at all.
+            out.writeByte(-1);
+        } else if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof String) {
+            out.writeByte(STRING_VALUE);
+            out.writeInt(strings.get(value));
+        } else if (value instanceof Double) {
+            out.writeByte(NUMERIC_VALUE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Date) {
+            out.writeByte(DATE_VALUE);
+            out.writeLong(((Date) value).getTime());
+        } else {
+            throw new IOException("Unsupported cell value type [" + value.getClass().getName() + "]");
+        }
+    }
+
+    private static MappedByteBuffer map(File cacheFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r"); FileChannel channel = file.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static Header readHeader(File cacheFile) throws IOException {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        MappedByteBuffer buffer = map(cacheFile);
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        Header header = new Header();
+        header.sourceModified = buffer.getLong();
+        header.sourceLength = buffer.getLong();
+        header.sourceHash = readUTF(buffer);
+        header.sourcePath = readUTF(buffer);
+        header.sheetName = readUTF(buffer);
+        return header;
+    }
+
+    /**
+     * Reads a count of items taking at least bytesEach bytes each, checked against what is left of the snapshot so a
+     * corrupt count fails straight away instead of allocating for it.
+     */
+    private static int count(MappedByteBuffer buffer, int bytesEach) {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * bytesEach > buffer.remaining()) {
+            throw new IllegalStateException("count [" + count + "] doesn't fit in the remaining [" + buffer.remaining() + "] bytes");
+        }
+        return count;
+    }
+
+    private static void restamp(File cacheFile, File source) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.seek(8);
+            file.writeLong(source.lastModified());
+            file.writeLong(source.length());
+        }
+    }
+
+    private static ArrayList<Object[]> readRows(File cacheFile) throws IOException {
+        MappedByteBuffer buffer = map(cacheFile);
+        buffer.position(24);
+        readUTF(buffer);
+        readUTF(buffer);
+        readUTF(buffer);
+
+        String[] strings = new String[count(buffer, 4)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[count(buffer, 1)];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String[] columns = new String[count(buffer, 4)];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = strings[buffer.getInt()];
+        }
+
+        int rowCount = count(buffer, Math.max(1, columns.length));
+        ArrayList<Object[]> rows = new ArrayList<Object[]>(rowCount);
+        for (int r = 0; r < rowCount; r++) {
+            HashMap<String, Object> row = new HashMap<String, Object>();
+            for (String column : columns) {
+                byte type = buffer.get();
+                switch (type) {
+                    case -1:
+                        break;
+                    case NULL_VALUE:
+                        row.put(column, null);
+                        break;
+                    case STRING_VALUE:
+                        row.put(column, strings[buffer.getInt()]);
+                        break;
+                    case NUMERIC_VALUE:
+                        row.put(column, buffer.getDouble());
+                        break;
+                    case BOOLEAN_VALUE:
+                        row.put(column, buffer.get() != 0);
+                        break;
+                    case DATE_VALUE:
+                        row.put(column, new Date(buffer.getLong()));
+                        break;
+                    default:
+                        throw new IllegalStateException("Corrupt device catalog cache, unknown value type [" + type + "]");
+                }
+            }
+            rows.add(new Object[] { row });
+        }
+        return rows;
+    }
+
+    /**
+     * Reads a string written by DataOutputStream.writeUTF, the catalog only holds plain text so standard UTF-8 decoding is enough.
+     */
+    private static String readUTF(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Header {
+        private long sourceModified;
+        private long sourceLength;
+        private String sourceHash;
+        private String sourcePath;
+        private String sheetName;
+
+        private boolean matchesStamp(File source, String sourcePath, String sheetName) {
+            return this.sourcePath.equals(sourcePath) && this.sheetName.equals(sheetName) && sourceModified == source.lastModified() && sourceLength == source.length();
+        }
+
+        private boolean matchesHash(String sourceHash, String sourcePath, String sheetName) {
+            return this.sourcePath.equals(sourcePath) && this.sheetName.equals(sheetName) && this.sourceHash.equals(sourceHash);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.qa.utils;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.Route;
+import org.openqa.selenium.remote.http.HttpClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One HTTP client shared by every Appium driver, instead of the connection pool each driver opens for itself.
+ *
+ * Connections to the endpoint are kept alive (http_keep_alive) and reused by every device session, at most
+ * http_max_commands_per_host commands are in flight per host at once (further commands wait), HTTP/2 is negotiated on
+ * https endpoints that support it (http2=false for HTTP/1.1 only) and http_connect_timeout / http_read_timeout bound
+ * each command. Every command is a Timeline span named after it, e.g. "http POST element/:id/click".
+ */
+public class DriverHttpClientFactory implements HttpClient.Factory {
+
+    private static final DriverHttpClientFactory INSTANCE = new DriverHttpClientFactory(PropertiesHelper.getProperties("/test.properties"));
+
+    private final OkHttpClient client;
+    private final ConnectionPool connectionPool;
+    private final int maxCommandsPerHost;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong commandsFailed = new AtomicLong();
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong http2ConnectionsOpened = new AtomicLong();
+    private final AtomicLong commandWaits = new AtomicLong();
+
+    public DriverHttpClientFactory(Properties properties) {
+        this.maxCommandsPerHost = (int) Math.max(1, PropertiesHelper.getLongProperty(properties, "http_max_commands_per_host", 20));
+        int maxIdleConnections = (int) Math.max(1, PropertiesHelper.getLongProperty(properties, "http_max_idle_connections", 20));
+        long keepAliveMillis = Math.max(1, PropertiesHelper.getLongProperty(properties, "http_keep_alive", 300000));
+        this.connectionPool = new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS);
+        List<Protocol> protocols = "false".equalsIgnoreCase(String.valueOf(properties.getProperty("http2")).trim())
+                ? Collections.singletonList(Protocol.HTTP_1_1)
+                : Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
+
+        //same redirect and retry behaviour as selenium's own client, session creation can wait a long time for a device.
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .protocols(protocols)
+                .connectTimeout(PropertiesHelper.getLongProperty(properties, "http_connect_timeout", 120000), TimeUnit.MILLISECONDS)
+                .readTimeout(PropertiesHelper.getLongProperty(properties, "http_read_timeout", 10800000), TimeUnit.MILLISECONDS)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .retryOnConnectionFailure(true)
+                .addInterceptor(new Interceptor() {
+                    public Response intercept(Chain chain) throws IOException {
+                        return execute(chain);
+                    }
+                })
+                .eventListener(new EventListener() {
+                    @Override
+                    public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+                        connectionsOpened.incrementAndGet();
+                        if (protocol == Protocol.HTTP_2) {
+                            http2ConnectionsOpened.incrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public void connectionAcquired(Call call, Connection connection) {
+                        connectionsAcquired.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    public static DriverHttpClientFactory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a client for the endpoint sharing this factory's connections, credentials in the url are sent as basic auth.
+     */
+    public HttpClient createClient(URL url) {
+        OkHttpClient endpointClient = client;
+        if (url.getUserInfo() != null && !url.getUserInfo().isEmpty()) {
+            String[] userInfo = url.getUserInfo().split(":", 2);
+            final String credentials = Credentials.basic(userInfo[0], userInfo.length > 1 ? userInfo[1] : "");
+            endpointClient = client.newBuilder().authenticator(new okhttp3.Authenticator() {
+                public okhttp3.Request authenticate(Route route, Response response) {
+                    if (response.request().header("Authorization") != null) {
+                        return null;
+                    }
+                    return response.request().newBuilder().header("Authorization", credentials).build();
+                }
+            }).build();
+        }
+        //closing the driver's client is a no-op, the connections stay in the shared pool.
+        return new org.openqa.selenium.remote.internal.OkHttpClient(endpointClient, url);
+    }
+
+    /**
+     * Closes the connections that are idle, e.g. once the suite has quit its sessions.
+     */
+    public void cleanupIdleClients() {
+        connectionPool.evictAll();
+    }
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getCommandsFailed() {
+        return commandsFailed.get();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long getHttp2ConnectionsOpened() {
+        return http2ConnectionsOpened.get();
+    }
+
+    /**
+     * @return how many times a command was sent on a connection that was already open
+     */
+    public long getConnectionsReused() {
+        return Math.max(0, connectionsAcquired.get() - connectionsOpened.get());
+    }
+
+    /**
+     * @return how many commands had to wait because http_max_commands_per_host were in flight
+     */
+    public long getCommandWaits() {
+        return commandWaits.get();
+    }
+
+    public String formatStatistics() {
+        return "Driver HTTP commands [" + commands.get() + "] of which failed [" + commandsFailed.get() + "], connections opened [" + connectionsOpened.get()
+                + "] of which http/2 [" + http2ConnectionsOpened.get() + "], reused [" + getConnectionsReused() + "] times, waited for a command slot ["
+                + commandWaits.get() + "] times";
+    }
+
+    /**
+     * Sends the command once fewer than maxCommandsPerHost are in flight to its host and reads the whole response, so
+     * the connection is handed back before the permit and the span cover the full round trip. The sends are synchronous,
+     * OkHttp's dispatcher limits only apply to asynchronous calls.
+     */
+    private Response execute(Interceptor.Chain chain) throws IOException {
+        HttpUrl url = chain.request().url();
+        Semaphore permits = permitsFor(url);
+        if (!permits.tryAcquire()) {
+            commandWaits.incrementAndGet();
+            Timeline.time("http.command.wait", () -> permits.acquireUninterruptibly());
+        }
+        commands.incrementAndGet();
+        try {
+            return Timeline.time("http " + chain.request().method() + " " + commandName(url), () -> {
+                Response response = chain.proceed(chain.request());
+                ResponseBody body = response.body();
+                if (body == null) {
+                    return response;
+                }
+                try {
+                    return response.newBuilder().body(ResponseBody.create(body.contentType(), body.bytes())).build();
+                } finally {
+                    body.close();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            commandsFailed.incrementAndGet();
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Semaphore permitsFor(HttpUrl url) {
+        Semaphore permits = hostPermits.get(url.host() + ":" + url.port());
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(maxCommandsPerHost, true);
+            permits = hostPermits.putIfAbsent(url.host() + ":" + url.port(), newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Names the command by its path after the session id, with element ids left out, e.g. "element/:id/click".
+     */
+    static String commandName(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        int session = segments.indexOf("session");
+        if (session < 0) {
+            return url.encodedPath();
+        }
+        if (session + 2 > segments.size()) {
+            return "session";
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = session + 2; i < segments.size(); i++) {
+            boolean elementId = i > session + 2 && (segments.get(i - 1).equals("element") || segments.get(i - 1).equals("elements")) && !segments.get(i).equals("active");
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(elementId ? ":id" : segments.get(i));
+        }
+        return name.length() == 0 ? "session/:id" : name.toString();
+    }
+}
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ExcelHelper {
 
@@ -156,26 +157,57 @@ public class ExcelHelper {
         return getRows(1, lastRow);
     }
 
-    public HashMap<String, Object> retrieveRowByName(String excelFilePath, String sheetName, String deviceName) {
-        ArrayList<Object[]> rows = retrieveAllRows(excelFilePath, sheetName);
-        for (Object[] a : rows) {
-            HashMap<String, Object> row = (HashMap<String, Object>) a[0];
-            if (row.get("name").equals(deviceName)) {
-                return row;
+    public HashMap<String, Object> retrieveRowByName(String excelFilePath, String sheetName, final String deviceName) {
+        final AtomicReference<HashMap<String, Object>> match = new AtomicReference<HashMap<String, Object>>();
+        streamRows(excelFilePath, sheetName, new StreamingExcelReader.RowHandler() {
+            public boolean handleRow(int rowNumber, HashMap<String, Object> row) {
+                if (rowMatches(row, "name", deviceName)) {
+                    match.set(row);
+                    return false;
+                }
+                return true;
             }
-        }
-        return null;
+        });
+        return match.get();
     }
 
+    /**
+     * Reads all the rows of the sheet through the streaming reader, the rows are the same as the ones returned by getAllRows.
+     */
     public ArrayList<Object[]> retrieveAllRows(String excelFilePath, String sheetName) {
-        loadExcelFile(excelFilePath);
-        if (getActiveSheet().getSheetName() != sheetName) {
-            setActiveSheet(sheetName);
-        }
-        ArrayList<Object[]> rows = getAllRows();
+        final ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        streamRows(excelFilePath, sheetName, new StreamingExcelReader.RowHandler() {
+            public boolean handleRow(int rowNumber, HashMap<String, Object> row) {
+                rows.add(new Object[] { row });
+                return true;
+            }
+        });
         return rows;
     }
 
+    /**
+     * Streams the sheet and only keeps the rows matching any of the values for the column, rows that don't match are never kept in memory.
+     */
+    public ArrayList<Object[]> retrieveRowsByColumn(String excelFilePath, String sheetName, final String fieldName, final String... fieldValues) {
+        final ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        streamRows(excelFilePath, sheetName, new StreamingExcelReader.RowHandler() {
+            public boolean handleRow(int rowNumber, HashMap<String, Object> row) {
+                for (String fieldValue : fieldValues) {
+                    if (rowMatches(row, fieldName, fieldValue)) {
+                        rows.add(new Object[] { row });
+                        break;
+                    }
+                }
+                return true;
+            }
+        });
+        return rows;
+    }
+
+    public void streamRows(String excelFilePath, String sheetName, StreamingExcelReader.RowHandler rowHandler) {
+        new StreamingExcelReader(excelFilePath).readSheet(sheetName, rowHandler);
+    }
+
     public ArrayList<Object[]> filterMapByColumn(ArrayList<Object[]> mapToFilter, String fieldName, String[] fieldValues) {
         ArrayList<Object[]> deviceList = new ArrayList<Object[]>();
 
@@ -190,11 +222,14 @@ public class ExcelHelper {
         ArrayList<Object[]> filteredRows = new ArrayList<Object[]>();
         for (Object[] a : mapToFilter) {
             HashMap<String, Object> row = (HashMap<String, Object>) a[0];
-            if (row.get(fieldName) != null && row.get(fieldName).equals(fieldValue)) {
-                a[0] = row;
+            if (rowMatches(row, fieldName, fieldValue)) {
                 filteredRows.add(a);
             }
         }
         return filteredRows;
     }
+
+    public static boolean rowMatches(HashMap<String, Object> row, String fieldName, String fieldValue) {
+        return row.get(fieldName) != null && row.get(fieldName).equals(fieldValue);
+    }
 }
@@ -2,15 +2,188 @@ package com.qa.utils;
 
 import org.apache.log4j.Logger;
 
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
 public class PropertiesHelper {
 
+    private static final ConcurrentHashMap<String, java.util.Properties> SNAPSHOTS = new ConcurrentHashMap<String, java.util.Properties>();
+
     public static java.util.Properties loadPropertiesFile(String propertiesFilePath) {
         java.util.Properties properties = new java.util.Properties();
         try {
-            properties.load(Thread.currentThread().getClass().getResourceAsStream(propertiesFilePath));
+            //the context class loader sees the test resources, Thread.class only sees the JDK's own classes on Java 9+.
+            properties.load(Thread.currentThread().getContextClassLoader().getResourceAsStream(propertiesFilePath.startsWith("/") ? propertiesFilePath.substring(1) : propertiesFilePath));
         } catch (Exception e) {
             Reporter.error(e.getMessage());
         }
         return properties;
     }
+
+    /**
+     * Returns the properties file loaded once and shared, changing the returned properties throws an UnsupportedOperationException.
+     * Use copyOf (or loadPropertiesFile) for a copy of your own.
+     */
+    public static java.util.Properties getProperties(String propertiesFilePath) {
+        java.util.Properties snapshot = SNAPSHOTS.get(propertiesFilePath);
+        if (snapshot == null) {
+            java.util.Properties newSnapshot = new ReadOnlyProperties(loadPropertiesFile(propertiesFilePath));
+            snapshot = SNAPSHOTS.putIfAbsent(propertiesFilePath, newSnapshot);
+            if (snapshot == null) {
+                snapshot = newSnapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the numeric property, or the default when it is missing, empty or was not filtered in by maven.
+     */
+    public static long getLongProperty(java.util.Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty() || value.startsWith("${")) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            Reporter.info("The property [" + key + "] has an invalid value [" + value + "], using [" + defaultValue + "]");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a copy of the properties the caller is free to change, without loading the file again.
+     */
+    public static java.util.Properties copyOf(java.util.Properties properties) {
+        java.util.Properties copy = new java.util.Properties();
+        for (String key : properties.stringPropertyNames()) {
+            copy.setProperty(key, properties.getProperty(key));
+        }
+        return copy;
+    }
+
+    /**
+     * Properties that can't be changed once built, every mutator (including the key, value and entry views) throws.
+     */
+    private static class ReadOnlyProperties extends java.util.Properties {
+        private static final long serialVersionUID = 1L;
+
+        private ReadOnlyProperties(java.util.Properties properties) {
+            for (String key : properties.stringPropertyNames()) {
+                super.put(key, properties.getProperty(key));
+            }
+        }
+
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("the shared properties are read only, use PropertiesHelper.copyOf for a copy you can change");
+        }
+
+        @Override
+        public synchronized Object setProperty(String key, String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized void load(Reader reader) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized void load(InputStream inStream) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized void loadFromXML(InputStream in) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object put(Object key, Object value) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object remove(Object key) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized void putAll(Map<?, ?> values) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized void clear() {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object putIfAbsent(Object key, Object value) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized boolean remove(Object key, Object value) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object replace(Object key, Object value) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public synchronized Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return Collections.unmodifiableSet(super.entrySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+    }
 }
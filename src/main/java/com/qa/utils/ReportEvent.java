@@ -0,0 +1,120 @@
+package com.qa.utils;
+
+import org.apache.log4j.Level;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A single Reporter message with the context it was logged in (thread, device, test and step).
+ *
+ * The message is only formatted when the event is written, so "{}" arguments should not be changed after logging them.
+ */
+public final class ReportEvent {
+
+    public static final String DEVICE = "device";
+    public static final String TEST = "test";
+    public static final String STEP = "step";
+    public static final String THREAD_ID = "threadId";
+
+    private final Level level;
+    private final long timestamp;
+    private final long threadId;
+    private final String threadName;
+    private final String device;
+    private final String test;
+    private final String step;
+    private final String pattern;
+    private final Object[] arguments;
+    private final Supplier<String> supplier;
+    private String message;
+
+    ReportEvent(Level level, long timestamp, Thread thread, String device, String test, String step, String pattern, Object[] arguments,
+            Supplier<String> supplier) {
+        this.level = level;
+        this.timestamp = timestamp;
+        this.threadId = thread.threadId();
+        this.threadName = thread.getName();
+        this.device = device;
+        this.test = test;
+        this.step = step;
+        this.pattern = pattern;
+        this.arguments = arguments;
+        this.supplier = supplier;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return the device the test thread was running against, null outside a device test
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    public String getTest() {
+        return test;
+    }
+
+    public String getStep() {
+        return step;
+    }
+
+    /**
+     * @return the message with its "{}" placeholders filled in, formatted on first use
+     */
+    public String getMessage() {
+        if (message == null) {
+            message = supplier != null ? String.valueOf(supplier.get()) : format(pattern, arguments);
+        }
+        return message;
+    }
+
+    /**
+     * The structured fields as log4j event properties, usable in layouts as e.g. %X{device}.
+     */
+    Map<String, String> getProperties() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(THREAD_ID, String.valueOf(threadId));
+        putIfNotNull(properties, DEVICE, device);
+        putIfNotNull(properties, TEST, test);
+        putIfNotNull(properties, STEP, step);
+        return properties;
+    }
+
+    static String format(String pattern, Object[] arguments) {
+        if (arguments == null || arguments.length == 0) {
+            return pattern;
+        }
+        StringBuilder formatted = new StringBuilder(pattern.length() + 16 * arguments.length);
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while (argument < arguments.length && (placeholder = pattern.indexOf("{}", start)) >= 0) {
+            formatted.append(pattern, start, placeholder).append(arguments[argument++]);
+            start = placeholder + 2;
+        }
+        return formatted.append(pattern, start, pattern.length()).toString();
+    }
+
+    private static void putIfNotNull(Map<String, String> properties, String key, String value) {
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.qa.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free queue for many logging threads and the single Reporter writer thread.
+ *
+ * Every slot carries a sequence number: a producer claims the next position with a CAS and publishes its event by
+ * advancing the slot's sequence, the consumer frees the slot by moving the sequence a lap ahead. No locks are taken
+ * on either side.
+ */
+final class ReportRingBuffer {
+
+    private final AtomicReferenceArray<ReportEvent> events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only written by the consumer, volatile so flush() can see how far it got.
+    private volatile long head;
+
+    ReportRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.events = new AtomicReferenceArray<ReportEvent>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(ReportEvent event) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events.lazySet(index, event);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // the consumer hasn't freed this slot yet.
+                return false;
+            }
+            // another producer took the position, try the next one.
+        }
+    }
+
+    /**
+     * Consumer only, returns null when nothing has been published.
+     */
+    ReportEvent poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        ReportEvent event = events.get(index);
+        events.lazySet(index, null);
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return event;
+    }
+
+    /**
+     * @return the number of events claimed by producers so far
+     */
+    long claimed() {
+        return tail.get();
+    }
+
+    /**
+     * @return the number of events taken by the consumer so far
+     */
+    long consumed() {
+        return head;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -1,22 +1,219 @@
 package com.qa.utils;
 
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.testng.TestNGException;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Logs through log4j from a single writer thread, so test threads never wait on the appenders.
+ *
+ * Each message is put on a bounded lock free ring buffer (-Dreporter_buffer_size, default 8192) together with the
+ * device/test/step context of the calling thread, then formatted and written in order by the "reporter-writer" thread.
+ * The context is passed on to log4j as event properties (%X{device}, %X{test}, %X{step}). When the buffer is full the
+ * caller waits for a free slot instead of dropping the message. error(...) still throws straight away. The writer parks
+ * while there is nothing to write and is unparked by the next message, so an idle logger costs no CPU.
+ */
 public class Reporter {
 
+    private static final String FQCN = Reporter.class.getName();
+    private static final long FULL_PARK_NANOS = 50000;
+
     private static Logger logger = Logger.getLogger("Reporter");
+    private static final ReportRingBuffer BUFFER = new ReportRingBuffer(Integer.getInteger("reporter_buffer_size", 8192));
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+    private static final AtomicLong BUFFER_FULL_WAITS = new AtomicLong();
+    private static volatile long eventsWritten;
+    // set by the writer before it parks, producers only unpark it when it is set.
+    private static volatile boolean writerIdle;
+    private static final Thread WRITER = startWriter();
+
+    public static boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
 
     public static void debug(String message) {
-        logger.debug("Thread [" + Thread.currentThread().getId() + "] " + message);
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, message, null, null);
+        }
+    }
+
+    /**
+     * Logs the pattern with each "{}" replaced by the next argument, formatting only happens if debug is enabled.
+     */
+    public static void debug(String pattern, Object... arguments) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, pattern, arguments, null);
+        }
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, null, null, message);
+        }
     }
 
     public static void info(String message) {
-        logger.info("Thread [" + Thread.currentThread().getId() + "] " + message);
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, message, null, null);
+        }
+    }
+
+    /**
+     * Logs the pattern with each "{}" replaced by the next argument, formatting happens on the writer thread.
+     */
+    public static void info(String pattern, Object... arguments) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, pattern, arguments, null);
+        }
+    }
+
+    public static void info(Supplier<String> message) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, null, null, message);
+        }
     }
 
     public static void error(String message) {
-        logger.error("Thread [" + Thread.currentThread().getId() + "] " + message);
+        log(Level.ERROR, message, null, null);
         throw new TestNGException(message);
     }
+
+    /**
+     * Sets the device the current thread is testing against, added to every event it logs.
+     */
+    public static void setDevice(String device) {
+        CONTEXT.get().device = device;
+    }
+
+    public static void setTest(String test) {
+        CONTEXT.get().test = test;
+    }
+
+    public static void setStep(String step) {
+        CONTEXT.get().step = step;
+    }
+
+    /**
+     * @return the device set for the current thread, null if none
+     */
+    public static String getDevice() {
+        return CONTEXT.get().device;
+    }
+
+    public static String getTest() {
+        return CONTEXT.get().test;
+    }
+
+    public static void clearContext() {
+        CONTEXT.remove();
+    }
+
+    /**
+     * Waits until everything logged so far has been written to the appenders.
+     *
+     * @return false if that didn't happen within the timeout
+     */
+    public static boolean flush(long timeoutMillis) {
+        long target = BUFFER.claimed();
+        long deadline = System.nanoTime() + timeoutMillis * 1000000;
+        while (eventsWritten < target && WRITER.isAlive()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * @return how often a logging thread had to wait because the buffer was full
+     */
+    public static long getBufferFullWaits() {
+        return BUFFER_FULL_WAITS.get();
+    }
+
+    private static void log(Level level, String pattern, Object[] arguments, Supplier<String> supplier) {
+        Context context = CONTEXT.get();
+        Thread thread = Thread.currentThread();
+        ReportEvent event = new ReportEvent(level, System.currentTimeMillis(), thread, context.device, context.test, context.step, pattern, arguments, supplier);
+        if (thread == WRITER || WRITER == null || !WRITER.isAlive()) {
+            // an appender logging through us, or no writer (left) to hand the event to.
+            write(event);
+            return;
+        }
+        if (BUFFER.offer(event)) {
+            if (writerIdle) {
+                LockSupport.unpark(WRITER);
+            }
+        } else {
+            BUFFER_FULL_WAITS.incrementAndGet();
+            LockSupport.unpark(WRITER);
+            // let the writer catch up, yielding first as it may be waiting for this cpu.
+            for (int attempt = 0; !BUFFER.offer(event); attempt++) {
+                if (attempt < 100) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                }
+            }
+        }
+    }
+
+    private static void write(ReportEvent event) {
+        try {
+            logger.callAppenders(new LoggingEvent(FQCN, logger, event.getTimestamp(), event.getLevel(), "Thread [" + event.getThreadId() + "] " + event.getMessage(),
+                    event.getThreadName(), null, null, null, event.getProperties()));
+        } catch (RuntimeException e) {
+            // a failing appender or message supplier must not stop the writer.
+            System.err.println("Unable to write log event due to [" + e + "]");
+        }
+    }
+
+    private static Thread startWriter() {
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    ReportEvent event = BUFFER.poll();
+                    if (event == null) {
+                        writerIdle = true;
+                        // look again once idle is visible, a producer that published before seeing it didn't unpark us.
+                        event = BUFFER.poll();
+                        if (event == null) {
+                            LockSupport.park();
+                            writerIdle = false;
+                            continue;
+                        }
+                        writerIdle = false;
+                    }
+                    write(event);
+                    eventsWritten = BUFFER.consumed();
+                }
+            }
+        }, "reporter-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                flush(5000);
+            }
+        }, "reporter-flush"));
+        return writer;
+    }
+
+    private static class Context {
+        private String device;
+        private String test;
+        private String step;
+    }
 }
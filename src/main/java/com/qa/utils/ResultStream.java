@@ -0,0 +1,300 @@
+package com.qa.utils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Appends every test result as a line of JSON (NDJSON) to results.ndjson under result_dir as soon as it completes, so
+ * a large run keeps no results in memory and a run that dies still leaves the results it got to behind.
+ *
+ * mergeToJUnitXml turns the lines into a JUnit XML report (one testsuite per TestNG suite) while reading them, holding
+ * only a few counters per suite in memory. It can also be run on its own, e.g. on the results of a run that was killed:
+ * java -cp target/classes:<dependencies> com.qa.utils.ResultStream target/results/results.ndjson target/results/junit.xml
+ */
+public class ResultStream {
+
+    private static final ResultStream INSTANCE = new ResultStream(resultDirectory(PropertiesHelper.getProperties("/test.properties")));
+
+    private final File directory;
+    private Writer writer;
+    private boolean started;
+    private int written;
+
+    public ResultStream(File directory) {
+        this.directory = directory;
+    }
+
+    public static ResultStream getInstance() {
+        return INSTANCE;
+    }
+
+    private static File resultDirectory(Properties properties) {
+        String directory = properties.getProperty("result_dir");
+        return new File(directory == null || directory.trim().isEmpty() || directory.startsWith("${") ? "target" + File.separator + "results" : directory.trim());
+    }
+
+    public File getResultsFile() {
+        return new File(directory, "results.ndjson");
+    }
+
+    public File getJUnitXmlFile() {
+        return new File(directory, "junit.xml");
+    }
+
+    public synchronized int getWritten() {
+        return written;
+    }
+
+    /**
+     * Appends the result as a single line.
+     */
+    public synchronized void append(JsonObject result) {
+        try {
+            if (writer == null) {
+                directory.mkdirs();
+                // the first result of the run replaces the previous run's results, later suites add to them.
+                writer = new OutputStreamWriter(new FileOutputStream(getResultsFile(), started), StandardCharsets.UTF_8);
+                started = true;
+            }
+            writer.write(result.toString());
+            writer.write("\n");
+            // flush every line so a killed run still leaves its results behind.
+            writer.flush();
+            written++;
+        } catch (IOException e) {
+            Reporter.info("Unable to write the result to [" + getResultsFile() + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    /**
+     * Closes the file, the results of a next suite are added to it.
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Reporter.info("Unable to close the results [" + getResultsFile() + "] due to [" + e.getMessage() + "]");
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Writes the JUnit XML report of the results, returns the number of test cases.
+     *
+     * The results are read once to count the tests of every suite (the testsuite element needs them up front) while
+     * copying each suite's lines to a part file of its own, then every part is read once to write its test cases. The
+     * report is written to a temporary file and moved in place at the end.
+     */
+    public static int mergeToJUnitXml(File results, File junitXml) throws IOException {
+        junitXml.getAbsoluteFile().getParentFile().mkdirs();
+        Map<String, SuiteTotals> suites = new LinkedHashMap<String, SuiteTotals>();
+        int cases = 0;
+        try (BufferedReader reader = open(results)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject result = parse(line);
+                if (result == null) {
+                    continue;
+                }
+                String suite = string(result, "suite");
+                SuiteTotals totals = suites.get(suite);
+                if (totals == null) {
+                    totals = new SuiteTotals(new File(junitXml.getPath() + ".part" + suites.size()));
+                    suites.put(suite, totals);
+                }
+                totals.add(result, line);
+                cases++;
+            }
+        } finally {
+            for (SuiteTotals totals : suites.values()) {
+                totals.closePart();
+            }
+        }
+
+        File temporary = new File(junitXml.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary))) {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            SuiteTotals all = new SuiteTotals(null);
+            for (SuiteTotals totals : suites.values()) {
+                all.addAll(totals);
+            }
+            xml.writeStartElement("testsuites");
+            all.writeAttributes(xml);
+            for (Map.Entry<String, SuiteTotals> suite : suites.entrySet()) {
+                xml.writeCharacters("\n  ");
+                xml.writeStartElement("testsuite");
+                xml.writeAttribute("name", suite.getKey());
+                suite.getValue().writeAttributes(xml);
+                writeTestCases(suite.getValue().part, xml);
+                xml.writeCharacters("\n  ");
+                xml.writeEndElement();
+            }
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write the JUnit report [" + junitXml + "]", e);
+        } finally {
+            for (SuiteTotals totals : suites.values()) {
+                totals.part.delete();
+            }
+        }
+        Files.move(temporary.toPath(), junitXml.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return cases;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File results = new File(args.length > 0 ? args[0] : "target" + File.separator + "results" + File.separator + "results.ndjson");
+        File junitXml = new File(args.length > 1 ? args[1] : new File(results.getAbsoluteFile().getParentFile(), "junit.xml").getPath());
+        int cases = mergeToJUnitXml(results, junitXml);
+        System.out.println("Merged [" + cases + "] results from [" + results + "] into [" + junitXml + "]");
+    }
+
+    private static void writeTestCases(File part, XMLStreamWriter xml) throws IOException, XMLStreamException {
+        try (BufferedReader reader = open(part)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject result = parse(line);
+                String device = result.has("device") ? string(result.getAsJsonObject("device"), "name") : "";
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("testcase");
+                xml.writeAttribute("classname", string(result, "class"));
+                xml.writeAttribute("name", string(result, "method") + (device.isEmpty() ? "" : " [" + device + "]"));
+                xml.writeAttribute("time", seconds(result.has("durationMillis") ? result.get("durationMillis").getAsLong() : 0));
+                String status = string(result, "status");
+                if (status.equals("FAILURE") && result.has("failure")) {
+                    JsonObject failure = result.getAsJsonObject("failure");
+                    xml.writeCharacters("\n      ");
+                    xml.writeStartElement("failure");
+                    xml.writeAttribute("type", string(failure, "type"));
+                    xml.writeAttribute("message", string(failure, "message"));
+                    xml.writeCharacters(string(failure, "stackTrace"));
+                    xml.writeEndElement();
+                } else if (status.equals("FAILURE")) {
+                    xml.writeCharacters("\n      ");
+                    xml.writeEmptyElement("failure");
+                } else if (status.equals("SKIP")) {
+                    xml.writeCharacters("\n      ");
+                    xml.writeEmptyElement("skipped");
+                }
+                if (result.has("screenshots") && result.getAsJsonArray("screenshots").size() > 0) {
+                    StringBuilder screenshots = new StringBuilder();
+                    for (JsonElement screenshot : result.getAsJsonArray("screenshots")) {
+                        screenshots.append("screenshot: ").append(screenshot.getAsString()).append('\n');
+                    }
+                    xml.writeCharacters("\n      ");
+                    xml.writeStartElement("system-out");
+                    xml.writeCharacters(screenshots.toString());
+                    xml.writeEndElement();
+                }
+                xml.writeCharacters("\n    ");
+                xml.writeEndElement();
+            }
+        }
+    }
+
+    private static BufferedReader open(File results) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(results), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the result on the line, null for a blank line or one cut short by a killed run
+     */
+    private static JsonObject parse(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JsonElement element = new JsonParser().parse(line);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static String string(JsonObject object, String member) {
+        JsonElement value = object.get(member);
+        return value == null || value.isJsonNull() ? "" : value.getAsString();
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    private static class SuiteTotals {
+        private final File part;
+        private Writer partWriter;
+        private int tests;
+        private int failures;
+        private int skipped;
+        private long durationMillis;
+
+        private SuiteTotals(File part) {
+            this.part = part;
+        }
+
+        private void add(JsonObject result, String line) throws IOException {
+            if (partWriter == null) {
+                partWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8));
+            }
+            partWriter.write(line);
+            partWriter.write("\n");
+            tests++;
+            String status = string(result, "status");
+            failures += status.equals("FAILURE") ? 1 : 0;
+            skipped += status.equals("SKIP") ? 1 : 0;
+            durationMillis += result.has("durationMillis") ? result.get("durationMillis").getAsLong() : 0;
+        }
+
+        private void closePart() throws IOException {
+            if (partWriter != null) {
+                partWriter.close();
+                partWriter = null;
+            }
+        }
+
+        private void addAll(SuiteTotals other) {
+            tests += other.tests;
+            failures += other.failures;
+            skipped += other.skipped;
+            durationMillis += other.durationMillis;
+        }
+
+        private void writeAttributes(XMLStreamWriter xml) throws XMLStreamException {
+            xml.writeAttribute("tests", String.valueOf(tests));
+            xml.writeAttribute("failures", String.valueOf(failures));
+            xml.writeAttribute("errors", "0");
+            xml.writeAttribute("skipped", String.valueOf(skipped));
+            xml.writeAttribute("time", seconds(durationMillis));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.qa.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed screenshot store: every distinct screenshot is written once as objects/ab/abcd...ext (named after
+ * the SHA-256 of the screenshot as captured, so the path is known before the image is encoded) and every screenshot
+ * taken is a line in index.tsv pointing at its image.
+ *
+ * Index lines are "timestamp, name, device, test, object path, dHash" separated by tabs. With perceptual deduplication
+ * on, a screenshot whose difference hash (dHash) is within the given number of bits of an image already stored points
+ * at that image instead of being written, so near identical screens (a blinking cursor, a clock) are kept once; its own
+ * path is a hard link to that image, where the file system supports them.
+ */
+public class ScreenshotStore {
+
+    private final File root;
+    private final String variant;
+    private final String extension;
+    private final boolean perceptual;
+    private final int maxDistance;
+    // object path -> the path of the image it points at, itself unless perceptually deduplicated.
+    private final ConcurrentHashMap<String, String> objects = new ConcurrentHashMap<String, String>();
+    private final List<PerceptualEntry> perceptualEntries = new ArrayList<PerceptualEntry>();
+    private final AtomicLong screenshots = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesDeduplicated = new AtomicLong();
+    private Writer index;
+
+    /**
+     * @param variant appended to the hash in object names, tells the scaled down copies of a capture apart, "" for none
+     * @param maxDistance the number of dHash bits two screenshots may differ in to be kept once, -1 to only dedupe identical images
+     */
+    public ScreenshotStore(File root, String variant, String extension, int maxDistance) {
+        this.root = root;
+        this.variant = variant;
+        this.extension = extension;
+        this.perceptual = maxDistance >= 0;
+        this.maxDistance = maxDistance;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param png the screenshot as captured
+     * @return where the screenshot is stored, relative to the root
+     */
+    public String objectPath(byte[] png) {
+        String hash = sha256(png);
+        return "objects/" + hash.substring(0, 2) + "/" + hash + variant + "." + extension;
+    }
+
+    /**
+     * Stores the image unless the same capture (or, with perceptual deduplication, a near identical one) is stored
+     * already and records the screenshot in the index.
+     *
+     * @param objectPath the path objectPath returned for the capture
+     * @param png the screenshot as captured, used for the perceptual hash
+     * @param encoded the bytes to store
+     * @return the stored image the screenshot points at
+     */
+    public File store(String name, String device, String test, String objectPath, byte[] png, byte[] encoded) throws IOException {
+        screenshots.incrementAndGet();
+        // only computed for images not stored before.
+        String dHashColumn = "";
+
+        String imagePath = objects.get(objectPath);
+        if (imagePath != null) {
+            bytesDeduplicated.addAndGet(encoded.length);
+        } else {
+            imagePath = objectPath;
+            if (perceptual) {
+                long dHash = differenceHash(png);
+                dHashColumn = Long.toHexString(dHash);
+                String similarPath = findSimilar(dHash, objectPath);
+                if (similarPath != null) {
+                    imagePath = similarPath;
+                }
+            }
+            String claimed = objects.putIfAbsent(objectPath, imagePath);
+            File object = new File(root, objectPath);
+            if (claimed != null) {
+                // another writer thread got the same capture first.
+                imagePath = claimed;
+                bytesDeduplicated.addAndGet(encoded.length);
+            } else if (object.isFile()) {
+                // stored by an earlier run.
+                bytesDeduplicated.addAndGet(encoded.length);
+            } else if (!imagePath.equals(objectPath) && link(object, new File(root, imagePath))) {
+                bytesDeduplicated.addAndGet(encoded.length);
+            } else {
+                imagePath = objectPath;
+                objects.put(objectPath, objectPath);
+                write(object, encoded);
+                bytesWritten.addAndGet(encoded.length);
+            }
+        }
+
+        appendToIndex(System.currentTimeMillis() + "\t" + name + "\t" + device + "\t" + test + "\t" + imagePath + "\t" + dHashColumn + "\n");
+        return new File(root, imagePath);
+    }
+
+    public long getScreenshots() {
+        return screenshots.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getBytesDeduplicated() {
+        return bytesDeduplicated.get();
+    }
+
+    public synchronized void close() {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                Reporter.info("Unable to close the screenshot index due to [" + e.getMessage() + "]");
+            }
+            index = null;
+        }
+    }
+
+    /**
+     * 64 bit difference hash: the image shrunk to 9x8 grey pixels, one bit per pixel brighter than its right neighbour.
+     */
+    static long differenceHash(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("the screenshot is not a readable image");
+        }
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = small.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, 9, 8, null);
+        graphics.dispose();
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if ((small.getRaster().getSample(x, y, 0)) > small.getRaster().getSample(x + 1, y, 0)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private synchronized String findSimilar(long dHash, String objectPath) {
+        for (PerceptualEntry entry : perceptualEntries) {
+            if (Long.bitCount(entry.dHash ^ dHash) <= maxDistance) {
+                return entry.objectPath;
+            }
+        }
+        perceptualEntries.add(new PerceptualEntry(dHash, objectPath));
+        return null;
+    }
+
+    private static void write(File object, byte[] bytes) throws IOException {
+        object.getParentFile().mkdirs();
+        File temp = new File(object.getParentFile(), object.getName() + "." + Thread.currentThread().threadId() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+        }
+        Files.move(temp.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return false if the file system has no hard links, the image is written under its own path instead
+     */
+    private static boolean link(File object, File image) {
+        try {
+            object.getParentFile().mkdirs();
+            Files.createLink(object.toPath(), image.toPath());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private synchronized void appendToIndex(String line) throws IOException {
+        if (index == null) {
+            root.mkdirs();
+            index = new OutputStreamWriter(new FileOutputStream(new File(root, "index.tsv"), true), StandardCharsets.UTF_8);
+        }
+        index.write(line);
+        // flush every line so a killed run still leaves its index behind.
+        index.flush();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class PerceptualEntry {
+        private final long dHash;
+        private final String objectPath;
+
+        private PerceptualEntry(long dHash, String objectPath) {
+            this.dHash = dHash;
+            this.objectPath = objectPath;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.qa.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes screenshots to the ScreenshotStore on a small pool of background threads, so the test thread only pays for the capture.
+ *
+ * The queue is bounded (screenshot_queue_size); when the disk can't keep up the test thread writes the screenshot
+ * itself, which slows the tests down instead of piling up screenshots in memory. Screenshots can be scaled down
+ * (screenshot_scale_percent) and recompressed as jpg (screenshot_format) on the writer threads. Every distinct capture is
+ * stored once under screenshot_dir (screenshot_perceptual_distance to keep near identical ones once as well).
+ */
+public class ScreenshotWriter {
+
+    private static final ScreenshotWriter INSTANCE = new ScreenshotWriter(PropertiesHelper.getProperties("/test.properties"));
+
+    private final ThreadPoolExecutor executor;
+    private final int scalePercent;
+    private final String format;
+    private final ScreenshotStore store;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    // queued or being written, a task a worker has taken off the queue but not started yet is still counted.
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public ScreenshotWriter(Properties properties) {
+        int threads = (int) Math.max(1, PropertiesHelper.getLongProperty(properties, "screenshot_writer_threads", 2));
+        int queueSize = (int) Math.max(1, PropertiesHelper.getLongProperty(properties, "screenshot_queue_size", 16));
+        this.scalePercent = (int) Math.min(100, Math.max(1, PropertiesHelper.getLongProperty(properties, "screenshot_scale_percent", 100)));
+        String configuredFormat = String.valueOf(properties.getProperty("screenshot_format")).trim().toLowerCase();
+        this.format = configuredFormat.equals("jpg") || configuredFormat.equals("jpeg") ? "jpg" : "png";
+        String directory = properties.getProperty("screenshot_dir");
+        this.store = new ScreenshotStore(new File(directory == null || directory.trim().isEmpty() ? "target" + File.separator + "screenshots" : directory.trim()),
+                scalePercent == 100 ? "" : "_" + scalePercent, format,
+                (int) PropertiesHelper.getLongProperty(properties, "screenshot_perceptual_distance", -1));
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "screenshot-writer-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static ScreenshotWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the file extension screenshots are written with, "png" unless recompressed
+     */
+    public String getFileExtension() {
+        return format;
+    }
+
+    public ScreenshotStore getStore() {
+        return store;
+    }
+
+    /**
+     * Queues the png bytes to be stored under the name, runs on the calling thread if the queue is full. Only hashing
+     * the capture happens on the calling thread.
+     *
+     * @return the file the screenshot is stored in once written, under screenshot_dir
+     */
+    public File write(final byte[] png, final String name) {
+        final String device = Reporter.getDevice();
+        final String test = Reporter.getTest();
+        final String objectPath = store.objectPath(png);
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    store.store(name, device, test, objectPath, png, encode(png));
+                    written.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    Reporter.info("Could not write screenshot [" + name + "] due to [" + e.getMessage() + "]");
+                } finally {
+                    Timeline.record("screenshot.write", device, test, start, System.currentTimeMillis() - start);
+                    pending.decrementAndGet();
+                }
+            }
+        });
+        return new File(store.getRoot(), objectPath);
+    }
+
+    /**
+     * Waits for the queued screenshots to be written, called at the end of the suite.
+     *
+     * @return false if they weren't all written within the timeout
+     */
+    public boolean awaitWritten(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (pending.get() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            TestUtils.pause(20);
+        }
+        return true;
+    }
+
+    public int getWritten() {
+        return written.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    private byte[] encode(byte[] png) throws IOException {
+        if (scalePercent == 100 && format.equals("png")) {
+            return png;
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("the screenshot is not a readable image");
+        }
+        if (scalePercent < 100) {
+            int width = Math.max(1, image.getWidth() * scalePercent / 100);
+            int height = Math.max(1, image.getHeight() * scalePercent / 100);
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+            graphics.dispose();
+            image = scaled;
+        } else if (format.equals("jpg") && image.getType() != BufferedImage.TYPE_INT_RGB) {
+            // jpg has no alpha channel.
+            BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = rgb.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            image = rgb;
+        }
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (format.equals("jpg")) {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            ImageWriteParam parameters = writer.getDefaultWriteParam();
+            parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            parameters.setCompressionQuality(0.8f);
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(encoded)) {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(image, null, null), parameters);
+            } finally {
+                writer.dispose();
+            }
+        } else {
+            ImageIO.write(image, "png", encoded);
+        }
+        return encoded.toByteArray();
+    }
+}
@@ -0,0 +1,262 @@
+package com.qa.utils;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * Reads a worksheet row by row through POI's event (SAX) API instead of building the whole XSSFWorkbook in memory.
+ * Rows are handed over as the same HashMap<String, Object> structure that ExcelHelper.getRows produces.
+ */
+public class StreamingExcelReader {
+
+    public interface RowHandler {
+        /**
+         * @param rowNumber zero based row number in the sheet (the header row is 0 and is never handed over)
+         * @param row       column heading to cell value
+         * @return false to stop reading the rest of the sheet
+         */
+        boolean handleRow(int rowNumber, HashMap<String, Object> row);
+    }
+
+    private final String excelFilePath;
+
+    public StreamingExcelReader(String excelFilePath) {
+        if (excelFilePath == null || excelFilePath.length() == 0) {
+            Reporter.error("Please enter a file path for the spreadsheet.");
+        }
+        this.excelFilePath = excelFilePath;
+    }
+
+    /**
+     * Streams every data row of the given sheet to the handler, the header row is used for the column names.
+     */
+    public void readSheet(String sheetName, RowHandler rowHandler) {
+        try (OPCPackage opcPackage = OPCPackage.open(excelFilePath, PackageAccess.READ)) {
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            StylesTable styles = xssfReader.getStylesTable();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheetStream = sheets.next()) {
+                    if (sheets.getSheetName().equals(sheetName)) {
+                        parseSheet(sheetStream, new SheetHandler(sharedStrings, styles, rowHandler));
+                        return;
+                    }
+                }
+            }
+            Reporter.error("Worksheet with the given name [" + sheetName + "] is not found in the workbook.");
+        } catch (IOException | OpenXML4JException e) {
+            Reporter.error("Couldn't read file from the location [" + excelFilePath + "] due to [" + e.getMessage() + "]");
+        } catch (SAXException | ParserConfigurationException e) {
+            Reporter.error("Couldn't parse worksheet [" + sheetName + "] due to [" + e.getMessage() + "]");
+        }
+    }
+
+    private void parseSheet(InputStream sheetStream, SheetHandler sheetHandler) throws IOException, SAXException, ParserConfigurationException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+        xmlReader.setContentHandler(sheetHandler);
+        try {
+            xmlReader.parse(new InputSource(sheetStream));
+        } catch (StopReadingException e) {
+            //the row handler asked us to stop, nothing else to read.
+        }
+    }
+
+    /**
+     * Thrown from inside the SAX callbacks to abort parsing once the row handler is done.
+     */
+    private static class StopReadingException extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Turns the sheet xml events into rows, mirroring the cell type handling in ExcelHelper.getRows.
+     */
+    private static class SheetHandler extends DefaultHandler {
+
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable styles;
+        private final RowHandler rowHandler;
+
+        private String[] columnHeadings;
+        private HashMap<String, Object> currentRow;
+        private Object[] headingCells;
+        private int rowNumber;
+
+        private int columnNumber;
+        private String cellType;
+        private String cellStyle;
+        private boolean cellHasFormula;
+        private boolean readingValue;
+        private final StringBuilder value = new StringBuilder();
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles, RowHandler rowHandler) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.rowHandler = rowHandler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    String rowReference = attributes.getValue("r");
+                    rowNumber = rowReference == null ? rowNumber + 1 : Integer.parseInt(rowReference) - 1;
+                    columnNumber = -1;
+                    if (columnHeadings == null) {
+                        headingCells = new Object[0];
+                    } else {
+                        currentRow = new HashMap<String, Object>();
+                    }
+                    break;
+                case "c":
+                    String cellReference = attributes.getValue("r");
+                    columnNumber = cellReference == null ? columnNumber + 1 : columnIndex(cellReference);
+                    cellType = attributes.getValue("t");
+                    cellStyle = attributes.getValue("s");
+                    cellHasFormula = false;
+                    value.setLength(0);
+                    break;
+                case "f":
+                    cellHasFormula = true;
+                    break;
+                case "v":
+                case "t":
+                    readingValue = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (readingValue) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    readingValue = false;
+                    break;
+                case "c":
+                    addCell(cellValue());
+                    break;
+                case "row":
+                    finishRow();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addCell(Object cellValue) {
+            if (columnHeadings == null) {
+                if (columnNumber >= headingCells.length) {
+                    Object[] grown = new Object[columnNumber + 1];
+                    System.arraycopy(headingCells, 0, grown, 0, headingCells.length);
+                    headingCells = grown;
+                }
+                headingCells[columnNumber] = cellValue;
+            } else if (columnNumber < columnHeadings.length && columnHeadings[columnNumber] != null) {
+                currentRow.put(columnHeadings[columnNumber], cellValue);
+                if (cellValue == null) {
+                    Reporter.debug("The value in cell on row " + rowNumber + ", column " + columnNumber + " has a unknown type.");
+                }
+            }
+        }
+
+        private void finishRow() throws SAXException {
+            if (columnHeadings == null) {
+                columnHeadings = new String[headingCells.length];
+                for (int i = 0; i < headingCells.length; i++) {
+                    columnHeadings[i] = headingCells[i] == null ? null : headingCells[i].toString();
+                }
+                headingCells = null;
+                return;
+            }
+            //cells missing from the sheet xml are reported the same way as blank cells.
+            for (String columnHeading : columnHeadings) {
+                if (columnHeading != null && !currentRow.containsKey(columnHeading)) {
+                    currentRow.put(columnHeading, null);
+                }
+            }
+            if (!rowHandler.handleRow(rowNumber, currentRow)) {
+                throw new StopReadingException();
+            }
+            currentRow = null;
+        }
+
+        private Object cellValue() {
+            String rawValue = value.length() == 0 ? null : value.toString();
+            if (cellHasFormula) {
+                // If the cell is a formula then it will return the last calculated value as a string.
+                return rawValue;
+            }
+            if (cellType == null || cellType.equals("n")) {
+                if (rawValue == null) {
+                    return null;
+                }
+                double numericValue = Double.parseDouble(rawValue);
+                if (isDateFormatted(numericValue)) {
+                    return DateUtil.getJavaDate(numericValue);
+                }
+                return numericValue;
+            }
+            switch (cellType) {
+                case "s":
+                    return sharedStrings.getEntryAt(Integer.parseInt(rawValue));
+                case "inlineStr":
+                    return rawValue == null ? "" : rawValue;
+                case "b":
+                    return "1".equals(rawValue);
+                default:
+                    return rawValue;
+            }
+        }
+
+        private boolean isDateFormatted(double numericValue) {
+            if (cellStyle == null || styles == null || !DateUtil.isValidExcelDate(numericValue)) {
+                return false;
+            }
+            XSSFCellStyle style = styles.getStyleAt(Integer.parseInt(cellStyle));
+            return style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+        }
+
+        private static int columnIndex(String cellReference) {
+            int column = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char c = cellReference.charAt(i);
+                if (!Character.isLetter(c)) {
+                    break;
+                }
+                column = column * 26 + (Character.toUpperCase(c) - 'A' + 1);
+            }
+            return column - 1;
+        }
+    }
+}
@@ -1,36 +1,42 @@
 package com.qa.utils;
 
+import com.qa.basetest.devices.DeviceConfig;
 import io.appium.java_client.AppiumDriver;
-import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
-import org.openqa.selenium.remote.Augmenter;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.ITestResult;
 
-import java.io.File;
-import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 
 public class TestUtils {
 
+    /**
+     * Attribute of the ITestResult listing the paths of the screenshots the test took.
+     */
+    private static final String SCREENSHOTS_ATTRIBUTE = "screenshots";
+
+    private static final DateTimeFormatter SCREENSHOT_DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy_HH-mm-ss.SS");
+
     public static DesiredCapabilities createDesiredCaps(Properties defaultProperties, HashMap<String, Object> deviceConfigMap) {
-        //setup desired caps for native app chrome beta.
-        DesiredCapabilities capabilities = new DesiredCapabilities();
+        return new CapabilityTemplate(defaultProperties).create(deviceConfigMap);
+    }
 
-        for (String key : defaultProperties.stringPropertyNames()) {
-            capabilities.setCapability(key, defaultProperties.getProperty(key));
-        }
+    public static DesiredCapabilities createDesiredCaps(Properties defaultProperties, DeviceConfig deviceConfig) {
+        return new CapabilityTemplate(defaultProperties).create(deviceConfig);
+    }
 
-        for (String key: deviceConfigMap.keySet()){
-            if (deviceConfigMap.get(key) != null && !deviceConfigMap.get(key).toString().isEmpty() && !deviceConfigMap.get(key).toString().equalsIgnoreCase("name")) {
-                capabilities.setCapability(key, deviceConfigMap.get(key));
-            }
-        }
-        return capabilities;
+    /**
+     * Overlays the device on the shared template, the defaults are only read from the properties once per suite.
+     */
+    public static DesiredCapabilities createDesiredCaps(CapabilityTemplate template, DeviceConfig deviceConfig) {
+        return template.create(deviceConfig);
     }
 
     public static void pause(long milliseconds) {
@@ -41,26 +47,51 @@ public class TestUtils {
         }
     }
 
+    /**
+     * Captures the screen of the device, the image is written in the background (see ScreenshotWriter).
+     *
+     * @return the path of the stored image (screenshot_dir/objects/...), also recorded on the current test result
+     */
     public static String takeScreenshot(AppiumDriver appiumDriver) {
+        return Timeline.time("screenshot", () -> takeScreenshotUntimed(appiumDriver));
+    }
 
-        org.openqa.selenium.WebDriver augmentedDriver = new Augmenter().augment(appiumDriver);
-        File screenshot = ((TakesScreenshot) augmentedDriver).getScreenshotAs(OutputType.FILE);
-        DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy_HH-mm-ss.SS");
-        // Generate the name of the file
-        String currentDate = dateFormat.format(new Date()).toString();
-        String deviceName = appiumDriver.getCapabilities().getCapability("testobject_device").toString();
+    private static String takeScreenshotUntimed(AppiumDriver appiumDriver) {
+        //the test thread only waits for the device capture, the file is written in the background.
+        byte[] screenshot = ((TakesScreenshot) appiumDriver).getScreenshotAs(OutputType.BYTES);
+        // Generate the name the screenshot is listed under in the index
+        String currentDate = SCREENSHOT_DATE_FORMAT.format(LocalDateTime.now());
+        Object deviceName = appiumDriver.getCapabilities().getCapability("testobject_device");
 
-        String filename = "target" + File.separator + currentDate + "_" + "thread_" + Thread.currentThread().getId()
-                + "_" + deviceName + "_" + "_screenshot.png";
+        String name = currentDate + "_" + "thread_" + Thread.currentThread().threadId() + "_" + deviceName + "_" + "_screenshot";
 
-        try {
-            FileUtils.copyFile(screenshot, new File(filename));
-            Reporter.info("Took a screenshot: [" + filename + "]");
-            return filename;
-        } catch (IOException e) {
-            Reporter.error("Could not take Screenshot: " + e.getMessage());
-            return null;
+        String path = ScreenshotWriter.getInstance().write(screenshot, name).getPath();
+        //remember it on the test result, so the result reporters can point at it.
+        ITestResult result = org.testng.Reporter.getCurrentTestResult();
+        if (result != null) {
+            List<String> screenshots = screenshots(result);
+            if (screenshots == null) {
+                screenshots = new ArrayList<String>();
+                result.setAttribute(SCREENSHOTS_ATTRIBUTE, screenshots);
+            }
+            screenshots.add(path);
         }
+        Reporter.info("Took a screenshot: [{}] stored as [{}]", name, path);
+        return path;
+    }
+
+    /**
+     * @return the paths of the screenshots taken during the test, empty if there weren't any
+     */
+    public static List<String> getScreenshots(ITestResult result) {
+        List<String> screenshots = screenshots(result);
+        return screenshots == null ? Collections.<String>emptyList() : Collections.unmodifiableList(screenshots);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> screenshots(ITestResult result) {
+        //only takeScreenshot sets the attribute, always to a List<String>.
+        return (List<String>) result.getAttribute(SCREENSHOTS_ATTRIBUTE);
     }
 
 }
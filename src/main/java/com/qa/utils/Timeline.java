@@ -0,0 +1,231 @@
+package com.qa.utils;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timed spans around driver and page operations, tagged with the device and test of the thread (see Reporter.setDevice).
+ *
+ * Every span is counted in a LatencyHistogram per operation and kept for the per device timeline, which is written as
+ * a Chrome trace (open it in chrome://tracing or https://ui.perfetto.dev). Usage:
+ * <pre>
+ * Timeline.time("page.click", () -> element.click());
+ * WebElement element = Timeline.time("driver.findElement", () -> driver.findElement(by));
+ * </pre>
+ */
+public final class Timeline {
+
+    // the timeline keeps the first spans only, the histograms count all of them.
+    private static final int MAX_SPANS = 200000;
+    private static final long START_NANOS = System.nanoTime();
+    private static final long START_EPOCH_MICROS = System.currentTimeMillis() * 1000;
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<String, LatencyHistogram>();
+    private static final ConcurrentLinkedQueue<SpanRecord> SPANS = new ConcurrentLinkedQueue<SpanRecord>();
+    private static final AtomicInteger SPAN_COUNT = new AtomicInteger();
+
+    private Timeline() {
+    }
+
+    /**
+     * An operation to time that returns a value, it may throw a checked exception which is passed on.
+     */
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * An operation to time that returns nothing, it may throw a checked exception which is passed on.
+     */
+    public interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Runs the operation and records how long it took, also when it throws.
+     */
+    public static <T, E extends Exception> T time(String operation, Call<T, E> call) throws E {
+        Span span = start(operation);
+        try {
+            return call.call();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Runs the operation and records how long it took, also when it throws.
+     */
+    public static <E extends Exception> void time(String operation, Action<E> action) throws E {
+        Span span = start(operation);
+        try {
+            action.run();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Starts timing the operation, the span is recorded when it is closed. For spans that don't fit a single call.
+     */
+    public static Span start(String operation) {
+        return new Span(operation, Reporter.getDevice(), Reporter.getTest());
+    }
+
+    /**
+     * Records a span that was timed elsewhere, e.g. a test method from its TestNG result.
+     */
+    public static void record(String operation, String device, String test, long startMillis, long durationMillis) {
+        add(new SpanRecord(operation, device, test, Thread.currentThread().threadId(), startMillis * 1000, durationMillis * 1000));
+    }
+
+    /**
+     * @return the latency histogram of every operation recorded so far, by operation name
+     */
+    public static Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<String, LatencyHistogram>(HISTOGRAMS);
+    }
+
+    /**
+     * Formats the count, mean, p50, p95, p99 and max latency of every operation in milliseconds.
+     */
+    public static String formatLatencyTable() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-30s %8s %10s %10s %10s %10s %10s%n", "operation", "count", "mean (ms)", "p50 (ms)", "p95 (ms)", "p99 (ms)", "max (ms)"));
+        for (Map.Entry<String, LatencyHistogram> operation : getHistograms().entrySet()) {
+            LatencyHistogram histogram = operation.getValue();
+            table.append(String.format("%-30s %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", operation.getKey(), histogram.getCount(), histogram.getMeanMicros() / 1000,
+                    histogram.getPercentileMicros(50) / 1000.0, histogram.getPercentileMicros(95) / 1000.0, histogram.getPercentileMicros(99) / 1000.0,
+                    histogram.getMaxMicros() / 1000.0));
+        }
+        return table.toString();
+    }
+
+    /**
+     * Writes the recorded spans as a Chrome trace, one timeline row per device.
+     */
+    public static void writeChromeTrace(File file) throws IOException {
+        List<SpanRecord> spans = new ArrayList<SpanRecord>(SPANS);
+        Map<String, Integer> rows = new LinkedHashMap<String, Integer>();
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (JsonWriter json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            json.beginObject();
+            json.name("displayTimeUnit").value("ms");
+            json.name("traceEvents").beginArray();
+            for (SpanRecord span : spans) {
+                String row = span.device == null ? "thread " + span.threadId : span.device;
+                Integer rowId = rows.get(row);
+                if (rowId == null) {
+                    rowId = rows.size() + 1;
+                    rows.put(row, rowId);
+                }
+                json.beginObject();
+                json.name("name").value(span.operation);
+                json.name("cat").value(span.operation.contains(".") ? span.operation.substring(0, span.operation.indexOf('.')) : span.operation);
+                json.name("ph").value("X");
+                json.name("ts").value(span.startMicros);
+                json.name("dur").value(span.durationMicros);
+                json.name("pid").value(1);
+                json.name("tid").value(rowId);
+                json.name("args").beginObject();
+                if (span.test != null) {
+                    json.name("test").value(span.test);
+                }
+                json.name("thread").value(span.threadId);
+                json.endObject();
+                json.endObject();
+            }
+            // name the rows after the devices.
+            for (Map.Entry<String, Integer> row : rows.entrySet()) {
+                json.beginObject();
+                json.name("name").value("thread_name");
+                json.name("ph").value("M");
+                json.name("pid").value(1);
+                json.name("tid").value(row.getValue());
+                json.name("args").beginObject().name("name").value(row.getKey()).endObject();
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    public static int getSpanCount() {
+        return SPAN_COUNT.get();
+    }
+
+    private static void add(SpanRecord span) {
+        LatencyHistogram histogram = HISTOGRAMS.get(span.operation);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = HISTOGRAMS.putIfAbsent(span.operation, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.recordMicros(span.durationMicros);
+        if (SPAN_COUNT.incrementAndGet() <= MAX_SPANS) {
+            SPANS.add(span);
+        }
+    }
+
+    /**
+     * A running operation, closing it records how long it took.
+     */
+    public static final class Span implements AutoCloseable {
+        private final String operation;
+        private final String device;
+        private final String test;
+        private final long startNanos = System.nanoTime();
+        private boolean closed;
+
+        private Span(String operation, String device, String test) {
+            this.operation = operation;
+            this.device = device;
+            this.test = test;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long endNanos = System.nanoTime();
+            add(new SpanRecord(operation, device, test, Thread.currentThread().threadId(), START_EPOCH_MICROS + (startNanos - START_NANOS) / 1000,
+                    (endNanos - startNanos) / 1000));
+        }
+    }
+
+    private static final class SpanRecord {
+        private final String operation;
+        private final String device;
+        private final String test;
+        private final long threadId;
+        private final long startMicros;
+        private final long durationMicros;
+
+        private SpanRecord(String operation, String device, String test, long threadId, long startMicros, long durationMicros) {
+            this.operation = operation;
+            this.device = device;
+            this.test = test;
+            this.threadId = threadId;
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.qa.basetest;
+
+import com.qa.basetest.tags.DeviceType;
+import com.qa.basetest.tags.Phase;
+import com.qa.basetest.tags.Platform;
+import org.testng.Assert;
+import org.testng.TestNGException;
+import org.testng.annotations.Test;
+
+public class TagExpressionTest {
+
+    @Test
+    public void andBindsTighterThanOr() {
+        Assert.assertEquals(TagExpression.parse("a OR b AND c").toString(), "(tag:a OR (tag:b AND tag:c))");
+        Assert.assertEquals(TagExpression.parse("a AND b OR c").toString(), "((tag:a AND tag:b) OR tag:c)");
+        Assert.assertEquals(TagExpression.parse("a || b && c").toString(), "(tag:a OR (tag:b AND tag:c))");
+    }
+
+    @Test
+    public void notBindsTighterThanAnd() {
+        Assert.assertEquals(TagExpression.parse("NOT a AND b").toString(), "(NOT tag:a AND tag:b)");
+        Assert.assertEquals(TagExpression.parse("!a || !!b").toString(), "(NOT tag:a OR NOT NOT tag:b)");
+    }
+
+    @Test
+    public void parenthesesGroup() {
+        Assert.assertEquals(TagExpression.parse("(a OR b) AND c").toString(), "((tag:a OR tag:b) AND tag:c)");
+        Assert.assertEquals(TagExpression.parse("NOT (a OR b)").toString(), "NOT (tag:a OR tag:b)");
+    }
+
+    @Test
+    public void operatorsAreLeftAssociative() {
+        Assert.assertEquals(TagExpression.parse("a AND b AND c").toString(), "((tag:a AND tag:b) AND tag:c)");
+        Assert.assertEquals(TagExpression.parse("a or b or c").toString(), "((tag:a OR tag:b) OR tag:c)");
+    }
+
+    @Test
+    public void resolvesTermsWithAndWithoutPrefix() {
+        Assert.assertEquals(TagExpression.parse("Regression AND phone AND iOS AND github").toString(),
+                "(((phase:regression AND device:phone) AND platform:ios) AND tag:github)");
+        Assert.assertEquals(TagExpression.parse("tag:smoke AND phase:smoke AND devicetype:tablet AND platform:android").toString(),
+                "(((tag:smoke AND phase:smoke) AND device:tablet) AND platform:android)");
+    }
+
+    @Test
+    public void matchesTheTestTagsAndTheDevice() throws NoSuchMethodException {
+        CompiledTestTags tags = CompiledTestTags.forMethod(Tagged.class, Tagged.class.getMethod("regressionTest"));
+        TagExpression expression = TagExpression.parse("regression AND github AND NOT (flaky OR tablet)");
+
+        Assert.assertTrue(expression.matches(tags, DeviceType.PHONE, Platform.ANDROID));
+        Assert.assertFalse(expression.matches(tags, DeviceType.TABLET, Platform.ANDROID));
+        Assert.assertFalse(TagExpression.parse("smoke OR flaky").matches(tags, DeviceType.PHONE, Platform.IOS));
+        Assert.assertTrue(TagExpression.parse("ios OR android").matches(tags, DeviceType.PHONE, Platform.IOS));
+        Assert.assertFalse(TagExpression.parse("ios OR android").matches(tags, null, null));
+    }
+
+    @Test
+    public void reportsThePositionOfAnUnexpectedToken() {
+        assertInvalidAt("a AND AND b", 6);
+        assertInvalidAt("a b", 2);
+        assertInvalidAt("(a OR b))", 8);
+        assertInvalidAt("a OR ) b", 5);
+    }
+
+    @Test
+    public void reportsThePositionOfAMissingTerm() {
+        assertInvalidAt("", 0);
+        assertInvalidAt("   ", 0);
+        assertInvalidAt("a AND", 5);
+        assertInvalidAt("(a OR b", 7);
+        assertInvalidAt("NOT", 3);
+    }
+
+    @Test
+    public void reportsThePositionOfAnInvalidTerm() {
+        assertInvalidAt("a AND b # c", 8);
+        assertInvalidAt("regression AND platform:windows", 15);
+        assertInvalidAt("smoke OR size:large", 9);
+    }
+
+    private static void assertInvalidAt(String expression, int position) {
+        try {
+            TagExpression.parse(expression);
+            Assert.fail("[" + expression + "] should be invalid");
+        } catch (TestNGException e) {
+            Assert.assertTrue(e.getMessage().contains("at position [" + position + "]"), "[" + expression + "]: " + e.getMessage());
+        }
+    }
+
+    @TestTags(tags = "github")
+    private static class Tagged {
+        @TestTags(phase = Phase.REGRESSION, devicetype = DeviceType.PHONE)
+        public void regressionTest() {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.qa.basetest.devices;
+
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.android.AndroidDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DeviceHealthTest {
+
+    private File store;
+
+    @BeforeMethod
+    public void createStore() throws IOException {
+        store = File.createTempFile("device-health", ".tsv");
+        store.deleteOnExit();
+        // an empty file, like the first run.
+        store.delete();
+    }
+
+    @Test
+    public void quarantinesOnceEnoughProbesInTheWindowAreBad() {
+        DeviceHealth health = new DeviceHealth(properties(3, 2, 3600000), store);
+        health.record("phone", 5, false);
+        health.record("phone", 5, true);
+        health.record("phone", 5, true);
+        health.record("phone", 5, true);
+        // the bad probe fell out of the window of 3.
+        health.record("phone", 5, false);
+        Assert.assertFalse(health.isQuarantined("phone"));
+
+        health.record("phone", 5, false);
+        Assert.assertTrue(health.isQuarantined("phone"));
+        Assert.assertFalse(health.isQuarantined("tablet"));
+    }
+
+    @Test
+    public void countsASlowProbeAsBad() {
+        DeviceHealth health = new DeviceHealth(properties(5, 2, 3600000), store);
+        health.record("phone", 100, true);
+        health.record("phone", 100, true);
+        Assert.assertFalse(health.isQuarantined("phone"), "at the latency limit is not slow");
+
+        health.record("phone", 101, true);
+        health.record("phone", 5000, true);
+        Assert.assertTrue(health.isQuarantined("phone"));
+        Assert.assertTrue(health.formatStatistics().contains("slow or failed [2]"), health.formatStatistics());
+    }
+
+    @Test
+    public void quarantineExpires() throws InterruptedException {
+        DeviceHealth health = new DeviceHealth(properties(2, 1, 200), store);
+        health.record("phone", 5, false);
+        Assert.assertTrue(health.isQuarantined("phone"));
+
+        Thread.sleep(300);
+        Assert.assertFalse(health.isQuarantined("phone"));
+        // the window was cleared when it was quarantined, it takes new bad probes to quarantine it again.
+        health.record("phone", 5, true);
+        Assert.assertFalse(health.isQuarantined("phone"));
+    }
+
+    @Test
+    public void reloadsRunningQuarantinesAndLatencySummaries() {
+        DeviceHealth health = new DeviceHealth(properties(5, 2, 3600000), store);
+        health.record("phone", 10, true);
+        health.record("phone", 30, true);
+        health.record("tablet", 2000, false);
+        health.record("tablet", 20, false);
+        DeviceHealth brief = new DeviceHealth(properties(5, 1, 100), store);
+        brief.record("watch", 5, false);
+        health.close();
+
+        DeviceHealth reloaded = new DeviceHealth(properties(5, 2, 3600000), store);
+        Assert.assertTrue(reloaded.isQuarantined("tablet"));
+        Assert.assertFalse(reloaded.isQuarantined("phone"));
+        DeviceHealth.LatencySummary phone = reloaded.getLatencySummary("phone");
+        Assert.assertEquals(phone.getProbes(), 2);
+        Assert.assertEquals(phone.getBadProbes(), 0);
+        Assert.assertEquals(phone.getMeanLatencyMillis(), 20);
+        Assert.assertEquals(phone.getMaxLatencyMillis(), 30);
+        Assert.assertEquals(reloaded.getLatencySummary("tablet").getBadProbes(), 2);
+        Assert.assertNull(reloaded.getLatencySummary("watch"), "the first instance rewrote the store without it");
+
+        // the summary adds up over the runs, the expired quarantine is dropped when the store is rewritten.
+        reloaded.record("phone", 60, true);
+        reloaded.close();
+        DeviceHealth third = new DeviceHealth(properties(5, 2, 3600000), store);
+        Assert.assertEquals(third.getLatencySummary("phone").getProbes(), 3);
+        Assert.assertEquals(third.getLatencySummary("phone").getMaxLatencyMillis(), 60);
+    }
+
+    @Test
+    public void dropsExpiredQuarantinesButKeepsTheSummary() throws InterruptedException, IOException {
+        DeviceHealth health = new DeviceHealth(properties(2, 1, 100), store);
+        health.record("phone", 5, false);
+        Thread.sleep(200);
+        health.close();
+
+        DeviceHealth reloaded = new DeviceHealth(properties(2, 1, 100), store);
+        Assert.assertFalse(reloaded.isQuarantined("phone"));
+        Assert.assertEquals(reloaded.getLatencySummary("phone").getProbes(), 1);
+        Assert.assertTrue(new String(Files.readAllBytes(store.toPath()), StandardCharsets.UTF_8).startsWith("phone\t0\t1\t1\t5\t5\t\n"));
+    }
+
+    @Test
+    public void skipsLinesItCannotRead() throws IOException {
+        long until = System.currentTimeMillis() + 3600000;
+        Files.write(store.toPath(), Arrays.asList("phone\t" + until + "\t4\t2\t40\t20\t2 of the last 4 probes slow or failed", "tablet\t" + until + "\t4",
+                "watch\tsoon\t1\t1\t1\t1\t", "tv\t" + until + "\t1\t1\t1\t1"), StandardCharsets.UTF_8);
+
+        DeviceHealth health = new DeviceHealth(properties(5, 2, 3600000), store);
+        Assert.assertTrue(health.isQuarantined("phone"));
+        Assert.assertTrue(health.isQuarantined("tv"), "a quarantine without a reason is still one");
+        Assert.assertFalse(health.isQuarantined("tablet"));
+        Assert.assertFalse(health.isQuarantined("watch"));
+        Assert.assertNull(health.getLatencySummary("watch"));
+    }
+
+    @Test
+    public void leavesQuarantinedDevicesOut() {
+        DeviceHealth health = new DeviceHealth(properties(2, 1, 3600000), store);
+        health.record("phone_a", 5, false);
+        List<DeviceConfig> devices = new ArrayList<DeviceConfig>();
+        devices.add(device("phone_a"));
+        devices.add(device("phone_b"));
+
+        List<DeviceConfig> healthy = health.filter(devices);
+        Assert.assertEquals(healthy.size(), 1);
+        Assert.assertEquals(healthy.get(0).getName(), "phone_b");
+    }
+
+    @Test
+    public void probesTheSessionAndRecordsTheResult() throws MalformedURLException {
+        DeviceHealth health = new DeviceHealth(properties(5, 2, 3600000), store);
+        AtomicBoolean gone = new AtomicBoolean();
+        AppiumDriver<WebElement> driver = driver(gone);
+        Assert.assertTrue(health.probe("phone", driver));
+        gone.set(true);
+        Assert.assertFalse(health.probe("phone", driver));
+
+        DeviceHealth.LatencySummary summary = health.getLatencySummary("phone");
+        Assert.assertEquals(summary.getProbes(), 2);
+        Assert.assertEquals(summary.getBadProbes(), 1);
+    }
+
+    private static Properties properties(int window, int badProbes, long quarantineTime) {
+        Properties properties = new Properties();
+        properties.setProperty("device_probe_max_latency", "100");
+        properties.setProperty("device_probe_window", String.valueOf(window));
+        properties.setProperty("device_quarantine_bad_probes", String.valueOf(badProbes));
+        properties.setProperty("device_quarantine_time", String.valueOf(quarantineTime));
+        properties.setProperty("device_probe_interval", "0");
+        return properties;
+    }
+
+    private static DeviceConfig device(String name) {
+        HashMap<String, Object> row = new HashMap<String, Object>();
+        row.put(DeviceConfig.NAME, name);
+        row.put(DeviceConfig.PLATFORM_NAME, "Android");
+        row.put(DeviceConfig.PLATFORM_VERSION, "8.1");
+        row.put(DeviceConfig.DEVICE_TYPE, "phone");
+        return DeviceConfig.fromMap(row);
+    }
+
+    /**
+     * A driver whose commands never leave the JVM, they fail once the session is gone.
+     */
+    private static AppiumDriver<WebElement> driver(final AtomicBoolean gone) throws MalformedURLException {
+        HttpCommandExecutor executor = new HttpCommandExecutor(URI.create("http://localhost:1/wd/hub").toURL()) {
+            @Override
+            public Response execute(Command command) {
+                if (gone.get()) {
+                    throw new WebDriverException("the session is gone");
+                }
+                Response response = new Response(new SessionId("fake-session"));
+                response.setValue(new HashMap<String, Object>(Collections.singletonMap("platformName", "Android")));
+                return response;
+            }
+        };
+        return new AndroidDriver<WebElement>(executor, new DesiredCapabilities());
+    }
+}
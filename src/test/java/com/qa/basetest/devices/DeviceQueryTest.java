@@ -0,0 +1,93 @@
+package com.qa.basetest.devices;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class DeviceQueryTest {
+
+    private DeviceCatalog catalog;
+
+    @BeforeClass
+    public void createCatalog() {
+        ArrayList<DeviceConfig> devices = new ArrayList<DeviceConfig>();
+        devices.add(device("iPhone_8", "iOS", "11.2", "phone", "Apple"));
+        devices.add(device("iPhone_X", "iOS", "11", "phone", "Apple"));
+        devices.add(device("iPad_Pro", "iOS", "12.1", "tablet", "Apple"));
+        devices.add(device("iPhone_future", "iOS", "110.0", "phone", "Apple"));
+        devices.add(device("Pixel", "Android", "8.1", "phone", "Google"));
+        devices.add(device("Galaxy_Tab", "Android", "7", "tablet", "Samsung"));
+        devices.add(device("Galaxy_S1", "Android", "1.1", "phone", "Samsung"));
+        catalog = new DeviceCatalog(devices);
+    }
+
+    @Test
+    public void matchesAnyOfTheColumnValues() {
+        Assert.assertEquals(names(DeviceQuery.column("name", "Pixel", "iPad_Pro", "unknown")), Arrays.asList("iPad_Pro", "Pixel"));
+        Assert.assertEquals(names(DeviceQuery.column("platformName", "Android")), Arrays.asList("Pixel", "Galaxy_Tab", "Galaxy_S1"));
+        Assert.assertTrue(names(DeviceQuery.column("platformName", "Windows")).isEmpty());
+    }
+
+    @Test
+    public void wildcardVersionMatchesTheMajorVersionAndItsMinorVersions() {
+        Assert.assertEquals(names(DeviceQuery.platformVersion("11.x")), Arrays.asList("iPhone_8", "iPhone_X"));
+        Assert.assertEquals(names(DeviceQuery.platformVersion("1.x")), Arrays.asList("Galaxy_S1"));
+        Assert.assertEquals(names(DeviceQuery.platformVersion("7.x")), Arrays.asList("Galaxy_Tab"));
+        Assert.assertTrue(names(DeviceQuery.platformVersion("9.x")).isEmpty());
+    }
+
+    @Test
+    public void versionWithoutWildcardMatchesExactly() {
+        Assert.assertEquals(names(DeviceQuery.platformVersion("11")), Arrays.asList("iPhone_X"));
+        Assert.assertEquals(names(DeviceQuery.platformVersion("11.2")), Arrays.asList("iPhone_8"));
+        Assert.assertTrue(names(DeviceQuery.platformVersion("11.")).isEmpty());
+    }
+
+    @Test
+    public void composesQueries() {
+        DeviceQuery iosPhones = DeviceQuery.column("platformName", "iOS").and(DeviceQuery.column("deviceType", "phone"));
+        Assert.assertEquals(names(iosPhones), Arrays.asList("iPhone_8", "iPhone_X", "iPhone_future"));
+        Assert.assertEquals(names(iosPhones.and(DeviceQuery.platformVersion("11.x")).or(DeviceQuery.column("name", "Galaxy_Tab"))),
+                Arrays.asList("iPhone_8", "iPhone_X", "Galaxy_Tab"));
+        Assert.assertEquals(names(DeviceQuery.column("deviceType", "phone").not()), Arrays.asList("iPad_Pro", "Galaxy_Tab"));
+        Assert.assertTrue(names(DeviceQuery.none().and(DeviceQuery.all())).isEmpty());
+        Assert.assertEquals(names(DeviceQuery.none().or(DeviceQuery.all())).size(), catalog.size());
+    }
+
+    @Test
+    public void queriesColumnsOutsideTheIndexedOnes() {
+        Assert.assertEquals(names(DeviceQuery.column("manufacturer", "Samsung")), Arrays.asList("Galaxy_Tab", "Galaxy_S1"));
+        Assert.assertEquals(names(DeviceQuery.columnStartsWith("manufacturer", "G")), Arrays.asList("Pixel"));
+    }
+
+    @Test
+    public void evaluatingAQueryLeavesTheIndexesAlone() {
+        DeviceQuery query = DeviceQuery.column("platformName", "iOS").and(DeviceQuery.column("deviceType", "tablet"));
+        Assert.assertEquals(names(query), Arrays.asList("iPad_Pro"));
+        Assert.assertEquals(names(DeviceQuery.column("platformName", "iOS")).size(), 4);
+        Assert.assertEquals(names(query.not().not()), Arrays.asList("iPad_Pro"));
+    }
+
+    private List<String> names(DeviceQuery query) {
+        List<String> names = new ArrayList<String>();
+        for (DeviceConfig deviceConfig : catalog.select(query)) {
+            names.add(deviceConfig.getName());
+        }
+        return names;
+    }
+
+    private static DeviceConfig device(String name, String platformName, String platformVersion, String deviceType, String manufacturer) {
+        HashMap<String, Object> row = new HashMap<String, Object>();
+        row.put(DeviceConfig.NAME, name);
+        row.put(DeviceConfig.PLATFORM_NAME, platformName);
+        row.put(DeviceConfig.PLATFORM_VERSION, platformVersion);
+        row.put(DeviceConfig.DEVICE_TYPE, deviceType);
+        row.put("manufacturer", manufacturer);
+        return DeviceConfig.fromMap(row);
+    }
+}
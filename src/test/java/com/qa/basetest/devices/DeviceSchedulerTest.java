@@ -0,0 +1,120 @@
+package com.qa.basetest.devices;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class DeviceSchedulerTest {
+
+    @Test
+    public void admitsAtMostMaxConcurrentSessions() throws InterruptedException {
+        DeviceScheduler scheduler = new DeviceScheduler(2);
+        Object first = new Object();
+        scheduler.admit(first, "phone_a");
+        scheduler.admit(new Object(), "phone_b");
+
+        BlockingQueue<String> admitted = new LinkedBlockingQueue<String>();
+        admitInBackground(scheduler, new Object(), "phone_c", "third", admitted);
+        Assert.assertNull(admitted.poll(200, TimeUnit.MILLISECONDS), "a third session was let through");
+
+        scheduler.complete(first);
+        Assert.assertEquals(admitted.poll(5, TimeUnit.SECONDS), "third");
+    }
+
+    @Test
+    public void admitsOneInstancePerDevice() throws InterruptedException {
+        DeviceScheduler scheduler = new DeviceScheduler(3);
+        Object first = new Object();
+        scheduler.admit(first, "phone_a");
+
+        BlockingQueue<String> admitted = new LinkedBlockingQueue<String>();
+        admitInBackground(scheduler, new Object(), "phone_a", "second", admitted);
+        Assert.assertNull(admitted.poll(200, TimeUnit.MILLISECONDS), "the device was handed out twice");
+
+        scheduler.complete(first);
+        Assert.assertEquals(admitted.poll(5, TimeUnit.SECONDS), "second");
+    }
+
+    @Test
+    public void admitsTheLongestExpectedInstanceFirst() throws InterruptedException {
+        DeviceScheduler scheduler = new DeviceScheduler(1);
+        Object blocker = new Object();
+        scheduler.admit(blocker, "phone_0");
+
+        Object shortest = new Object();
+        Object longest = new Object();
+        Object middle = new Object();
+        scheduler.register(shortest, "phone_a", 1000);
+        scheduler.register(longest, "phone_b", 5000);
+        scheduler.register(middle, "phone_c", 3000);
+        BlockingQueue<String> admitted = new LinkedBlockingQueue<String>();
+        admitInBackground(scheduler, shortest, "phone_a", "shortest", admitted);
+        admitInBackground(scheduler, longest, "phone_b", "longest", admitted);
+        admitInBackground(scheduler, middle, "phone_c", "middle", admitted);
+        // give all three the time to start waiting.
+        Thread.sleep(300);
+        Assert.assertTrue(admitted.isEmpty());
+
+        scheduler.complete(blocker);
+        Assert.assertEquals(admitted.poll(5, TimeUnit.SECONDS), "longest");
+        scheduler.complete(longest);
+        Assert.assertEquals(admitted.poll(5, TimeUnit.SECONDS), "middle");
+        scheduler.complete(middle);
+        Assert.assertEquals(admitted.poll(5, TimeUnit.SECONDS), "shortest");
+    }
+
+    @Test
+    public void aLongerInstanceWaitingForABusyDeviceDoesNotHoldOthersBack() throws InterruptedException {
+        DeviceScheduler scheduler = new DeviceScheduler(2);
+        scheduler.admit(new Object(), "phone_a");
+
+        Object longer = new Object();
+        Object shorter = new Object();
+        scheduler.register(longer, "phone_a", 10000);
+        scheduler.register(shorter, "phone_b", 100);
+        BlockingQueue<String> admitted = new LinkedBlockingQueue<String>();
+        admitInBackground(scheduler, longer, "phone_a", "longer", admitted);
+        Thread.sleep(100);
+        admitInBackground(scheduler, shorter, "phone_b", "shorter", admitted);
+
+        Assert.assertEquals(admitted.poll(5, TimeUnit.SECONDS), "shorter");
+        Assert.assertNull(admitted.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void predictsTheMakespanByReplayingTheRules() {
+        DeviceScheduler scheduler = new DeviceScheduler(2);
+        scheduler.register(new Object(), "phone_a", 5000);
+        scheduler.register(new Object(), "phone_a", 3000);
+        scheduler.register(new Object(), "phone_b", 4000);
+        scheduler.register(new Object(), "phone_c", 1000);
+
+        // phone_a 0-5000 and phone_b 0-4000, phone_c 4000-5000 once a slot is free, phone_a again 5000-8000.
+        Assert.assertEquals(scheduler.predictMakespanMillis(), 8000);
+        Map<String, Long> planned = scheduler.getPlannedDurationPerDevice();
+        Assert.assertEquals(planned.get("phone_a").longValue(), 8000);
+        Assert.assertEquals(planned.get("phone_b").longValue(), 4000);
+        Assert.assertEquals(planned.get("phone_c").longValue(), 1000);
+    }
+
+    @Test
+    public void predictsNothingForAnEmptyPlan() {
+        Assert.assertEquals(new DeviceScheduler(3).predictMakespanMillis(), 0);
+    }
+
+    private static void admitInBackground(final DeviceScheduler scheduler, final Object instance, final String deviceName, final String label,
+            final BlockingQueue<String> admitted) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                scheduler.admit(instance, deviceName);
+                admitted.add(label);
+            }
+        }, "admit-" + label);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,84 @@
+package com.qa.basetest.devices;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class DurationStoreTest {
+
+    private File file;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+        file = File.createTempFile("durations", ".tsv");
+        file.deleteOnExit();
+        // no history yet, like the first run.
+        file.delete();
+    }
+
+    @Test
+    public void estimatesTheDefaultWithoutHistory() {
+        DurationStore store = new DurationStore(file);
+        Assert.assertEquals(store.estimate("Test.method", "phone_a"), DurationStore.DEFAULT_METHOD_DURATION_MILLIS);
+    }
+
+    @Test
+    public void weighsRecentRunsMost() {
+        DurationStore store = new DurationStore(file);
+        store.record("Test.method", "phone_a", 1000, "SUCCESS");
+        Assert.assertEquals(store.estimate("Test.method", "phone_a"), 1000);
+
+        // 30% of the way to each new duration.
+        store.record("Test.method", "phone_a", 2000, "SUCCESS");
+        Assert.assertEquals(store.estimate("Test.method", "phone_a"), 1300);
+        store.record("Test.method", "phone_a", 0, "FAILURE");
+        Assert.assertEquals(store.estimate("Test.method", "phone_a"), 910);
+        store.close();
+    }
+
+    @Test
+    public void fallsBackToTheMethodOnAnyDevice() {
+        DurationStore store = new DurationStore(file);
+        store.record("Test.method", "phone_a", 1000, "SUCCESS");
+        store.record("Test.method", "phone_b", 2000, "SUCCESS");
+
+        Assert.assertEquals(store.estimate("Test.method", "phone_b"), 2000);
+        Assert.assertEquals(store.estimate("Test.method", "phone_c"), 1300);
+        Assert.assertEquals(store.estimate("Test.other", "phone_a"), DurationStore.DEFAULT_METHOD_DURATION_MILLIS);
+        store.close();
+    }
+
+    @Test
+    public void appendsEveryRecordAndReadsThemBack() throws IOException {
+        DurationStore store = new DurationStore(file);
+        store.record("Test.method", "phone_a", 1000, "SUCCESS");
+        store.record("Test.method", "phone_a", 2000, "SUCCESS");
+        store.close();
+        DurationStore next = new DurationStore(file);
+        next.record("Test.method", "phone_a", 4000, "SKIP");
+        next.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 3);
+        Assert.assertTrue(lines.get(2).endsWith("\tTest.method\tphone_a\t4000\tSKIP"), lines.get(2));
+        // 1000, 1300, then 1300 + 0.3 * 2700.
+        Assert.assertEquals(new DurationStore(file).estimate("Test.method", "phone_a"), 2110);
+    }
+
+    @Test
+    public void skipsLinesItCannotRead() throws IOException {
+        Files.write(file.toPath(), Arrays.asList("1\tTest.method\tphone_a\t1000\tSUCCESS", "2\tTest.method\tphone_a", "3\tTest.method\tphone_a\tslow\tSUCCESS", "",
+                "4\tTest.method\tphone_a\t2000", "5\tTest.met"), StandardCharsets.UTF_8);
+
+        // the last line was cut short by a killed run; a line without a status still carries its duration.
+        DurationStore store = new DurationStore(file);
+        Assert.assertEquals(store.estimate("Test.method", "phone_a"), 1300);
+    }
+}
@@ -0,0 +1,321 @@
+package com.qa.basetest.devices;
+
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.android.AndroidDriver;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+import org.testng.Assert;
+import org.testng.TestNGException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SessionAcquirerTest {
+
+    private FakePool pool;
+    private DeviceHealth health;
+    private DeviceScheduler scheduler;
+    private DeviceCatalog catalog;
+    private DeviceConfig phoneA;
+
+    @BeforeMethod
+    public void createPool() throws IOException {
+        File healthStore = File.createTempFile("device-health", ".tsv");
+        healthStore.deleteOnExit();
+        health = new DeviceHealth(new Properties(), healthStore);
+        pool = new FakePool(health);
+        scheduler = new DeviceScheduler(3);
+        ArrayList<DeviceConfig> devices = new ArrayList<DeviceConfig>();
+        phoneA = device("phone_a", "phone");
+        devices.add(phoneA);
+        devices.add(device("phone_b", "phone"));
+        devices.add(device("tablet_c", "tablet"));
+        catalog = new DeviceCatalog(devices);
+    }
+
+    @Test
+    public void backoffStaysWithinTheExponentialCeiling() {
+        SessionAcquirer acquirer = acquirer(properties(10, 100, 1000, 3, 60000));
+        long[] ceilings = { 100, 200, 400, 800, 1000, 1000 };
+        for (int attempt = 0; attempt < ceilings.length; attempt++) {
+            long highest = 0;
+            for (int i = 0; i < 2000; i++) {
+                long delay = acquirer.backoffMillis(attempt);
+                Assert.assertTrue(delay >= 0 && delay <= ceilings[attempt], "attempt [" + attempt + "] delay [" + delay + "]");
+                highest = Math.max(highest, delay);
+            }
+            // full jitter spreads the delays over the whole range.
+            Assert.assertTrue(highest > ceilings[attempt] / 2, "attempt [" + attempt + "] highest delay [" + highest + "]");
+        }
+    }
+
+    @Test
+    public void backoffIsCappedForLateAttemptsAndHugeDelays() {
+        SessionAcquirer acquirer = acquirer(properties(10, 100, 1000, 3, 60000));
+        for (int attempt : new int[] { 31, 62, 63, 64, 1000, Integer.MAX_VALUE }) {
+            long delay = acquirer.backoffMillis(attempt);
+            Assert.assertTrue(delay >= 0 && delay <= 1000, "attempt [" + attempt + "] delay [" + delay + "]");
+        }
+        // the shifted delay overflows, the maximum still applies.
+        SessionAcquirer huge = acquirer(properties(10, Long.MAX_VALUE / 4, Long.MAX_VALUE / 2, 3, 60000));
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long delay = huge.backoffMillis(attempt);
+            Assert.assertTrue(delay >= 0 && delay <= Long.MAX_VALUE / 2, "attempt [" + attempt + "] delay [" + delay + "]");
+        }
+    }
+
+    @Test
+    public void retriesUntilASessionIsCreated() {
+        SessionAcquirer acquirer = acquirer(properties(3, 1, 2, 10, 60000));
+        pool.outcomes("phone_a", false, false, true);
+
+        SessionAcquirer.Lease lease = acquirer.acquire(new Object(), phoneA, null, null);
+
+        Assert.assertSame(lease.getDeviceConfig(), phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 3);
+        Assert.assertEquals(acquirer.getRetries(), 2);
+        Assert.assertFalse(acquirer.isCircuitOpen("phone_a"));
+    }
+
+    @Test
+    public void failsOnceEveryAttemptFailed() {
+        SessionAcquirer acquirer = acquirer(properties(2, 1, 2, 10, 60000));
+        assertNoSession(acquirer, phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 3);
+        Assert.assertEquals(acquirer.getRetries(), 2);
+    }
+
+    @Test
+    public void opensTheCircuitAfterConsecutiveFailuresAndClosesItAfterASuccessfulTrial() throws InterruptedException {
+        SessionAcquirer acquirer = acquirer(properties(1, 1, 2, 2, 300));
+
+        assertNoSession(acquirer, phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 2);
+        Assert.assertTrue(acquirer.isCircuitOpen("phone_a"));
+        Assert.assertEquals(acquirer.getCircuitsOpened(), 1);
+
+        // open: the device isn't tried at all.
+        assertNoSession(acquirer, phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 2);
+
+        // half open once the open time is over: a single trial, which closes it again.
+        Thread.sleep(400);
+        Assert.assertFalse(acquirer.isCircuitOpen("phone_a"));
+        pool.outcomes("phone_a", true);
+        Assert.assertSame(acquirer.acquire(new Object(), phoneA, null, null).getDeviceConfig(), phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 3);
+
+        // closed: it takes consecutive failures again to open it.
+        pool.outcomes("phone_a", false, true);
+        acquirer.acquire(new Object(), phoneA, null, null);
+        Assert.assertFalse(acquirer.isCircuitOpen("phone_a"));
+        Assert.assertEquals(acquirer.getCircuitsOpened(), 1);
+    }
+
+    @Test
+    public void reopensTheCircuitWhenTheTrialFails() throws InterruptedException {
+        SessionAcquirer acquirer = acquirer(properties(1, 1, 2, 2, 300));
+        assertNoSession(acquirer, phoneA);
+        Assert.assertTrue(acquirer.isCircuitOpen("phone_a"));
+
+        Thread.sleep(400);
+        assertNoSession(acquirer, phoneA);
+        // the failed trial opened it straight away, the retry wasn't let through.
+        Assert.assertEquals(pool.attempts("phone_a"), 3);
+        Assert.assertTrue(acquirer.isCircuitOpen("phone_a"));
+        Assert.assertEquals(acquirer.getCircuitsOpened(), 2);
+    }
+
+    @Test
+    public void triesADeviceAgainAfterPreWarmingItFailed() throws InterruptedException {
+        SessionAcquirer acquirer = acquirer(properties(0, 1, 2, 2, 60000));
+        failPrewarm(phoneA);
+        pool.outcomes("phone_a", true);
+
+        Assert.assertSame(acquirer.acquire(new Object(), phoneA, null, null).getDeviceConfig(), phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 1);
+        Assert.assertNull(pool.getFailure(phoneA));
+        Assert.assertFalse(acquirer.isCircuitOpen("phone_a"));
+    }
+
+    @Test
+    public void countsAFailedPreWarmTowardsTheCircuit() throws InterruptedException {
+        SessionAcquirer acquirer = acquirer(properties(0, 1, 2, 2, 60000));
+        failPrewarm(phoneA);
+
+        assertNoSession(acquirer, phoneA);
+        // the pre-warm and the lease make the two failures in a row.
+        Assert.assertEquals(pool.attempts("phone_a"), 1);
+        Assert.assertTrue(acquirer.isCircuitOpen("phone_a"));
+    }
+
+    @Test
+    public void failsFastOnAQuarantinedDevice() {
+        SessionAcquirer acquirer = acquirer(properties(3, 1, 2, 10, 60000));
+        health.record("phone_a", 5, false);
+        health.record("phone_a", 5, false);
+        Assert.assertTrue(health.isQuarantined("phone_a"));
+
+        assertNoSession(acquirer, phoneA);
+        Assert.assertEquals(pool.attempts("phone_a"), 0);
+        Assert.assertEquals(acquirer.getRetries(), 0);
+    }
+
+    @Test
+    public void movesTheInstanceToAFreeEquivalentDevice() {
+        SessionAcquirer acquirer = acquirer(properties(0, 1, 2, 10, 60000));
+        pool.outcomes("phone_b", true);
+        Object instance = new Object();
+        scheduler.admit(instance, "phone_a");
+
+        SessionAcquirer.Lease lease = acquirer.acquire(instance, phoneA, catalog, null);
+
+        Assert.assertEquals(lease.getDeviceConfig().getName(), "phone_b");
+        Assert.assertEquals(pool.attempts("tablet_c"), 0, "only equivalent devices are tried");
+        Assert.assertEquals(acquirer.getFallbacks(), 1);
+        // the scheduler followed the instance: its old device is free, the new one is busy.
+        Assert.assertTrue(scheduler.claim(new Object(), "phone_a"));
+        Assert.assertFalse(scheduler.claim(new Object(), "phone_b"));
+    }
+
+    @Test
+    public void leavesEquivalentDevicesOtherInstancesWereAdmittedTo() {
+        SessionAcquirer acquirer = acquirer(properties(0, 1, 2, 10, 60000));
+        pool.outcomes("phone_b", true);
+        Object instance = new Object();
+        scheduler.admit(instance, "phone_a");
+        scheduler.admit(new Object(), "phone_b");
+
+        assertNoSession(acquirer, instance, phoneA, catalog);
+        Assert.assertEquals(pool.attempts("phone_b"), 0);
+        Assert.assertFalse(scheduler.claim(new Object(), "phone_a"), "the instance keeps its own device");
+    }
+
+    @Test
+    public void givesTheClaimBackWhenTheEquivalentDeviceFails() {
+        SessionAcquirer acquirer = acquirer(properties(0, 1, 2, 10, 60000));
+        Object instance = new Object();
+        scheduler.admit(instance, "phone_a");
+
+        assertNoSession(acquirer, instance, phoneA, catalog);
+        Assert.assertEquals(pool.attempts("phone_b"), 1);
+        Assert.assertTrue(scheduler.claim(new Object(), "phone_b"));
+    }
+
+    private void assertNoSession(SessionAcquirer acquirer, DeviceConfig deviceConfig) {
+        assertNoSession(acquirer, new Object(), deviceConfig, null);
+    }
+
+    private void assertNoSession(SessionAcquirer acquirer, Object instance, DeviceConfig deviceConfig, DeviceCatalog deviceCatalog) {
+        try {
+            acquirer.acquire(instance, deviceConfig, deviceCatalog, null);
+            Assert.fail("no session should have been leased on [" + deviceConfig.getName() + "]");
+        } catch (TestNGException e) {
+            Assert.assertTrue(e.getMessage().contains("No session for device [" + deviceConfig.getName() + "]"), e.getMessage());
+        }
+    }
+
+    private void failPrewarm(DeviceConfig deviceConfig) throws InterruptedException {
+        pool.prewarm(Collections.<DeviceConfig, DeviceSessionPool.SessionFactory>singletonMap(deviceConfig, new DeviceSessionPool.SessionFactory() {
+            public AppiumDriver<WebElement> createSession(DeviceConfig config) {
+                throw new SessionNotCreatedException("device [" + config.getName() + "] is offline");
+            }
+        }), 1, 60000);
+        for (int i = 0; i < 500 && pool.getFailure(deviceConfig) == null; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertNotNull(pool.getFailure(deviceConfig), "pre-warming [" + deviceConfig.getName() + "] should have failed");
+    }
+
+    private SessionAcquirer acquirer(Properties properties) {
+        return new SessionAcquirer(properties, pool, scheduler, health);
+    }
+
+    private static Properties properties(int attempts, long delay, long maxDelay, int circuitFailures, long circuitOpenTime) {
+        Properties properties = new Properties();
+        properties.setProperty("session_retry_attempts", String.valueOf(attempts));
+        properties.setProperty("session_retry_delay", String.valueOf(delay));
+        properties.setProperty("session_retry_max_delay", String.valueOf(maxDelay));
+        properties.setProperty("device_circuit_failures", String.valueOf(circuitFailures));
+        properties.setProperty("device_circuit_open_time", String.valueOf(circuitOpenTime));
+        return properties;
+    }
+
+    private static DeviceConfig device(String name, String deviceType) {
+        HashMap<String, Object> row = new HashMap<String, Object>();
+        row.put(DeviceConfig.NAME, name);
+        row.put(DeviceConfig.PLATFORM_NAME, "Android");
+        row.put(DeviceConfig.PLATFORM_VERSION, "8.1");
+        row.put(DeviceConfig.DEVICE_TYPE, deviceType);
+        return DeviceConfig.fromMap(row);
+    }
+
+    /**
+     * Hands out the scripted outcome of every session attempt per device, no session once the script runs out. The
+     * sessions are a driver whose commands never leave the JVM, the acquirer only passes them on.
+     */
+    private static class FakePool extends DeviceSessionPool {
+        private final Map<String, ArrayDeque<Boolean>> outcomes = new ConcurrentHashMap<String, ArrayDeque<Boolean>>();
+        private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+        private final AppiumDriver<WebElement> driver;
+
+        private FakePool(DeviceHealth health) throws MalformedURLException {
+            super(60000, health);
+            HttpCommandExecutor executor = new HttpCommandExecutor(URI.create("http://localhost:1/wd/hub").toURL()) {
+                @Override
+                public Response execute(Command command) {
+                    Response response = new Response(new SessionId("fake-session"));
+                    response.setValue(new HashMap<String, Object>(Collections.singletonMap("platformName", "Android")));
+                    return response;
+                }
+            };
+            driver = new AndroidDriver<WebElement>(executor, new DesiredCapabilities());
+        }
+
+        private void outcomes(String deviceName, Boolean... created) {
+            ArrayDeque<Boolean> script = new ArrayDeque<Boolean>();
+            for (Boolean outcome : created) {
+                script.add(outcome);
+            }
+            outcomes.put(deviceName, script);
+        }
+
+        private int attempts(String deviceName) {
+            AtomicInteger count = attempts.get(deviceName);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public AppiumDriver<WebElement> lease(DeviceConfig deviceConfig, SessionFactory sessionFactory) {
+            attempts.computeIfAbsent(deviceConfig.getName(), name -> new AtomicInteger()).incrementAndGet();
+            ArrayDeque<Boolean> script = outcomes.get(deviceConfig.getName());
+            Boolean created = script == null ? null : script.poll();
+            if (created == null || !created) {
+                throw new SessionNotCreatedException("device [" + deviceConfig.getName() + "] is busy\nbuild info");
+            }
+            return driver;
+        }
+
+        @Override
+        public AppiumDriver<WebElement> tryLease(DeviceConfig deviceConfig, SessionFactory sessionFactory) {
+            return lease(deviceConfig, sessionFactory);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.qa.benchmarks;
+
+import com.qa.utils.DeviceCatalogCache;
+import com.qa.utils.ExcelHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Measures a cold start (no snapshot, the xlsx is parsed and the cache rebuilt) against warm starts served from the snapshot.
+ *
+ * Run with: java -cp target/test-classes:target/classes:<dependencies> com.qa.benchmarks.DeviceCatalogCacheBenchmark [xlsx] [sheet]
+ */
+public class DeviceCatalogCacheBenchmark {
+
+    public static void main(String[] args) {
+        String excelFilePath = args.length > 0 ? args[0] : "src/test/resources/devices/devicelist.xlsx";
+        String sheetName = args.length > 1 ? args[1] : "RealDevices";
+        DeviceCatalogCache cache = new DeviceCatalogCache(new File("target" + File.separator + "benchmarks" + File.separator + "device-catalog"));
+
+        //load once directly so class loading doesn't count against the cold start.
+        new ExcelHelper().retrieveAllRows(excelFilePath, sheetName);
+
+        for (int i = 0; i < 3; i++) {
+            cache.cacheFileFor(excelFilePath, sheetName).delete();
+            long start = System.nanoTime();
+            ArrayList<Object[]> rows = cache.retrieveAllRows(excelFilePath, sheetName);
+            report("cold", rows.size(), System.nanoTime() - start);
+
+            for (int j = 0; j < 3; j++) {
+                start = System.nanoTime();
+                rows = cache.retrieveAllRows(excelFilePath, sheetName);
+                report("warm", rows.size(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void report(String mode, int rows, long nanos) {
+        System.out.println(String.format("%-5s %7d devices in %8.2f ms", mode, rows, nanos / 1000000.0));
+    }
+}
@@ -0,0 +1,165 @@
+package com.qa.benchmarks;
+
+import com.qa.utils.ExcelHelper;
+import com.qa.utils.StreamingExcelReader;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compares the DOM (XSSFWorkbook) and streaming (SAX) device sheet readers on a generated multi tab workbook.
+ *
+ * Every mode ends with the matching rows in the same structure (the Object[] { row } list the data providers use) after
+ * reading the whole sheet: dom loads the workbook and filters getAllRows, streaming filters retrieveAllRows and
+ * streaming-filter keeps only the matches while reading (retrieveRowsByColumn). first-match stops timing at the first
+ * matching row, what a caller stopping early would wait for. Reports the time and the peak heap of each.
+ *
+ * Run with: java -cp target/test-classes:target/classes:<dependencies> com.qa.benchmarks.ExcelReaderBenchmark [rows] [sheets]
+ */
+public class ExcelReaderBenchmark {
+
+    private static final String[] HEADINGS = { "name", "testobject_device", "browserName", "deviceType", "platformName",
+            "platformVersion", "automationName", "testobject_appium_version", "phoneOnly", "tabletOnly", "privateDevicesOnly" };
+    private static final String SHEET_NAME = "RealDevices";
+    private static final String TARGET_DEVICE = "iPhone_X_11_4_real";
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int sheets = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        File workbook = generateWorkbook(rows, sheets);
+
+        //warm up every code path so class loading isn't measured.
+        runDom(workbook.getPath());
+        runStreaming(workbook.getPath());
+        runStreamingFilter(workbook.getPath());
+        runFirstMatch(workbook.getPath());
+
+        for (int i = 0; i < 3; i++) {
+            report("dom", measure(() -> runDom(workbook.getPath())));
+            report("streaming", measure(() -> runStreaming(workbook.getPath())));
+            report("streaming-filter", measure(() -> runStreamingFilter(workbook.getPath())));
+            report("first-match", measure(() -> runFirstMatch(workbook.getPath())));
+        }
+    }
+
+    private static long runDom(String path) {
+        long start = System.nanoTime();
+        ExcelHelper excelHelper = new ExcelHelper();
+        excelHelper.loadExcelFile(path);
+        excelHelper.setActiveSheet(SHEET_NAME);
+        ArrayList<Object[]> rows = excelHelper.getAllRows();
+        return matched(excelHelper.filterMapByColumn(rows, "name", TARGET_DEVICE), start);
+    }
+
+    private static long runStreaming(String path) {
+        long start = System.nanoTime();
+        ExcelHelper excelHelper = new ExcelHelper();
+        ArrayList<Object[]> rows = excelHelper.retrieveAllRows(path, SHEET_NAME);
+        return matched(excelHelper.filterMapByColumn(rows, "name", TARGET_DEVICE), start);
+    }
+
+    private static long runStreamingFilter(String path) {
+        long start = System.nanoTime();
+        return matched(new ExcelHelper().retrieveRowsByColumn(path, SHEET_NAME, "name", TARGET_DEVICE), start);
+    }
+
+    private static long runFirstMatch(String path) {
+        final long start = System.nanoTime();
+        final long[] firstDevice = new long[1];
+        new StreamingExcelReader(path).readSheet(SHEET_NAME, new StreamingExcelReader.RowHandler() {
+            public boolean handleRow(int rowNumber, HashMap<String, Object> row) {
+                if (ExcelHelper.rowMatches(row, "name", TARGET_DEVICE)) {
+                    firstDevice[0] = System.nanoTime() - start;
+                    return false;
+                }
+                return true;
+            }
+        });
+        if (firstDevice[0] == 0) {
+            throw new IllegalStateException("target device not found");
+        }
+        return firstDevice[0];
+    }
+
+    private static long matched(ArrayList<Object[]> match, long start) {
+        long elapsed = System.nanoTime() - start;
+        if (match.size() != 1) {
+            throw new IllegalStateException("expected the target device once, found it [" + match.size() + "] times");
+        }
+        return elapsed;
+    }
+
+    private interface Run {
+        long run();
+    }
+
+    private static long[] measure(Run run) {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long baseline = heapUsed(false);
+        long time = run.run();
+        long peak = heapUsed(true) - baseline;
+        return new long[] { time, peak };
+    }
+
+    private static long heapUsed(boolean peak) {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += peak ? pool.getPeakUsage().getUsed() : pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static void report(String mode, long[] result) {
+        System.out.println(String.format("%-16s time: %6d ms, peak heap: %6d MB", mode, result[0] / 1000000, result[1] / (1024 * 1024)));
+    }
+
+    private static File generateWorkbook(int rows, int sheets) throws IOException {
+        File file = new File("target" + File.separator + "benchmarks" + File.separator + "devicelist-" + rows + "x" + sheets + ".xlsx");
+        if (file.exists()) {
+            return file;
+        }
+        file.getParentFile().mkdirs();
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try {
+            for (int s = 0; s < sheets; s++) {
+                //the device sheet is written last so the streaming reader has to skip the other tabs.
+                Sheet sheet = workbook.createSheet(s == sheets - 1 ? SHEET_NAME : "Devices" + s);
+                Row heading = sheet.createRow(0);
+                for (int c = 0; c < HEADINGS.length; c++) {
+                    heading.createCell(c).setCellValue(HEADINGS[c]);
+                }
+                for (int r = 1; r <= rows; r++) {
+                    Row row = sheet.createRow(r);
+                    boolean ios = r % 2 == 0;
+                    //the device we look for sits in the middle of the sheet.
+                    String name = (s == sheets - 1 && r == rows / 2) ? TARGET_DEVICE : "device_" + s + "_" + r;
+                    String[] values = { name, name, ios ? "safari" : "chrome", r % 3 == 0 ? "tablet" : "phone", ios ? "iOS" : "Android",
+                            String.valueOf(8 + r % 5), ios ? "XCUITest" : "appium", "1.9.1", "", "", "false" };
+                    for (int c = 0; c < values.length; c++) {
+                        row.createCell(c).setCellValue(values[c]);
+                    }
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        } finally {
+            workbook.dispose();
+        }
+        return file;
+    }
+}
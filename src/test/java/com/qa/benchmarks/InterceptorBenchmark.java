@@ -0,0 +1,159 @@
+package com.qa.benchmarks;
+
+import com.qa.basetest.BaseMethodsInterceptor;
+import com.qa.basetest.MultiDeviceBaseTest;
+import com.qa.basetest.TestTags;
+import com.qa.basetest.devices.DeviceConfig;
+import com.qa.basetest.tags.DeviceType;
+import com.qa.basetest.tags.Phase;
+import com.qa.basetest.tags.Platform;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.testng.IMethodInstance;
+import org.testng.ITestClass;
+import org.testng.ITestNGMethod;
+import org.testng.internal.ConstructorOrMethod;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Times BaseMethodsInterceptor.intercept over synthetic factory instances (3 tagged methods per instance).
+ *
+ * intercept only selects and orders, registering with the DeviceScheduler and pre-warming sessions happen in onStart,
+ * which isn't called here: the iterations measure the same work and leave no instances or sessions behind.
+ * Logging is raised to WARN so the numbers show the matching cost rather than console I/O.
+ * Run with: java -cp target/test-classes:target/classes:<dependencies> com.qa.benchmarks.InterceptorBenchmark [instances...]
+ */
+public class InterceptorBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    @TestTags(phase = Phase.REGRESSION)
+    public static class SyntheticTest extends MultiDeviceBaseTest {
+
+        public SyntheticTest(DeviceConfig deviceConfig) {
+            super(deviceConfig);
+        }
+
+        @TestTags(devicetype = DeviceType.PHONE, platform = { Platform.ANDROID, Platform.IOS }, tags = "github")
+        public void phoneTest() {
+        }
+
+        @TestTags(devicetype = DeviceType.TABLET, platform = Platform.IOS, tags = { "github", "flaky" })
+        public void tabletTest() {
+        }
+
+        public void untaggedTest() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Logger.getRootLogger().setLevel(Level.WARN);
+        System.setProperty("testPhase", "regression");
+        System.setProperty("tags", "github");
+
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[] { 10000, 100000 };
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int size : sizes) {
+            List<IMethodInstance> methods = createMethodInstances(size);
+            BaseMethodsInterceptor interceptor = new BaseMethodsInterceptor();
+            // warm up.
+            interceptor.intercept(new ArrayList<IMethodInstance>(methods), null);
+
+            long best = Long.MAX_VALUE;
+            int selected = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                selected = interceptor.intercept(new ArrayList<IMethodInstance>(methods), null).size();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println(String.format("%7d instances, %7d methods -> %7d selected, best of %d: %8.1f ms (%6.0f ns/method)",
+                    size, methods.size(), selected, ITERATIONS, best / 1000000.0, (double) best / methods.size()));
+        }
+    }
+
+    private static List<IMethodInstance> createMethodInstances(int instances) throws NoSuchMethodException {
+        Method[] testMethods = { SyntheticTest.class.getMethod("phoneTest"), SyntheticTest.class.getMethod("tabletTest"),
+                SyntheticTest.class.getMethod("untaggedTest") };
+        ITestClass testClass = proxy(ITestClass.class, "getRealClass", SyntheticTest.class);
+
+        List<IMethodInstance> methodInstances = new ArrayList<IMethodInstance>();
+        for (int i = 0; i < instances; i++) {
+            HashMap<String, Object> row = new HashMap<String, Object>();
+            row.put("name", "device_" + i);
+            row.put("platformName", i % 2 == 0 ? "iOS" : "Android");
+            row.put("platformVersion", String.valueOf(8 + i % 5));
+            row.put("deviceType", i % 3 == 0 ? "tablet" : "phone");
+            SyntheticTest instance = new SyntheticTest(DeviceConfig.fromMap(row));
+            for (Method testMethod : testMethods) {
+                methodInstances.add(methodInstance(testMethod, testClass, instance));
+            }
+        }
+        return methodInstances;
+    }
+
+    private static IMethodInstance methodInstance(final Method method, final ITestClass testClass, final Object instance) {
+        final ConstructorOrMethod constructorOrMethod = new ConstructorOrMethod(method);
+        final ITestNGMethod testNGMethod = (ITestNGMethod) Proxy.newProxyInstance(ITestNGMethod.class.getClassLoader(), new Class<?>[] { ITestNGMethod.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method invoked, Object[] args) {
+                        switch (invoked.getName()) {
+                            case "getConstructorOrMethod":
+                                return constructorOrMethod;
+                            case "getTestClass":
+                                return testClass;
+                            case "getRealClass":
+                                return SyntheticTest.class;
+                            case "getMethodName":
+                                return method.getName();
+                            case "getInstance":
+                                return instance;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                throw new UnsupportedOperationException(invoked.getName());
+                        }
+                    }
+                });
+        return new IMethodInstance() {
+            public ITestNGMethod getMethod() {
+                return testNGMethod;
+            }
+
+            public Object[] getInstances() {
+                return new Object[] { instance };
+            }
+
+            public Object getInstance() {
+                return instance;
+            }
+        };
+    }
+
+    private static <T> T proxy(Class<T> type, final String methodName, final Object value) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                if (invoked.getName().equals(methodName)) {
+                    return value;
+                }
+                if (invoked.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                if (invoked.getName().equals("equals")) {
+                    return proxy == args[0];
+                }
+                throw new UnsupportedOperationException(invoked.getName());
+            }
+        }));
+    }
+}
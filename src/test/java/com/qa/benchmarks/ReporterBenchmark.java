@@ -0,0 +1,92 @@
+package com.qa.benchmarks;
+
+import com.qa.utils.Reporter;
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares logging straight through log4j (what Reporter used to do) with the asynchronous Reporter, with many test
+ * threads logging at once into a file appender using the layout from log4j.properties. Reports the throughput and how
+ * long a single logging call keeps the test thread busy.
+ *
+ * Run with: java -cp target/test-classes:target/classes:<dependencies> com.qa.benchmarks.ReporterBenchmark [threads] [messages per thread]
+ */
+public class ReporterBenchmark {
+
+    private interface LogCall {
+        void log(int thread, int message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        File logFile = File.createTempFile("reporter-benchmark", ".log");
+        logFile.deleteOnExit();
+        LogManager.resetConfiguration();
+        Logger.getRootLogger().setLevel(Level.INFO);
+        Logger.getRootLogger().addAppender(new FileAppender(new PatternLayout("%d{yyyy-MM-dd HH:mm:ss} %c{1} [%p] %m%n"), logFile.getAbsolutePath(), false));
+
+        final Logger log4j = Logger.getLogger("Reporter");
+        LogCall synchronous = new LogCall() {
+            public void log(int thread, int message) {
+                log4j.info("Thread [" + Thread.currentThread().threadId() + "] " + "Clicked on button with by [By.className: mt-" + message + "] on device [device_" + thread + "]");
+            }
+        };
+        LogCall asynchronous = new LogCall() {
+            public void log(int thread, int message) {
+                Reporter.info("Clicked on button with by [By.className: mt-{}] on device [device_{}]", message, thread);
+            }
+        };
+
+        for (int round = 0; round < 3; round++) {
+            run("log4j directly", synchronous, threads, messages);
+            run("async Reporter", asynchronous, threads, messages);
+        }
+        System.out.println("Reporter waited for a free buffer slot [" + Reporter.getBufferFullWaits() + "] times");
+    }
+
+    private static void run(String name, final LogCall call, int threads, final int messages) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long[] callNanos = new long[threads * messages];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < messages; i++) {
+                            long callStart = System.nanoTime();
+                            call.log(thread, i);
+                            callNanos[thread * messages + i] = System.nanoTime() - callStart;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long logged = System.nanoTime() - begin;
+        Reporter.flush(60000);
+        long written = System.nanoTime() - begin;
+
+        long total = (long) threads * messages;
+        Arrays.sort(callNanos);
+        System.out.println(String.format("%-15s %2d threads x %d: test threads done in %5d ms, written in %5d ms (%7.0f msg/s), call p50 %6.1f us, p99 %8.1f us, max %6d ms",
+                name, threads, messages, logged / 1000000, written / 1000000, total * 1e9 / written, callNanos[callNanos.length / 2] / 1000.0,
+                callNanos[(int) (callNanos.length * 0.99)] / 1000.0, callNanos[callNanos.length - 1] / 1000000));
+    }
+}
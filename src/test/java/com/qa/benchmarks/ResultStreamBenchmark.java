@@ -0,0 +1,83 @@
+package com.qa.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.qa.utils.ResultStream;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Streams synthetic (device x method) results through the ResultStream and merges them into JUnit XML, reporting the
+ * time taken and the heap in use after each step, which should stay flat however many results there are.
+ *
+ * Run with: java -Xmx64m -cp target/test-classes:target/classes:<dependencies> com.qa.benchmarks.ResultStreamBenchmark [results...]
+ */
+public class ResultStreamBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[] { 10000, 100000, 500000 };
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%10s %12s %12s %14s %14s %12s%n", "results", "append (ms)", "merge (ms)", "heap (MB)", "ndjson (MB)", "xml (MB)");
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) throws Exception {
+        File directory = Files.createTempDirectory("result-stream-benchmark").toFile();
+        ResultStream stream = new ResultStream(directory);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            stream.append(result(i));
+        }
+        stream.close();
+        long appendMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        ResultStream.mergeToJUnitXml(stream.getResultsFile(), stream.getJUnitXmlFile());
+        long mergeMillis = (System.nanoTime() - start) / 1000000;
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+
+        System.out.printf("%10d %12d %12d %14.1f %14.1f %12.1f%n", size, appendMillis, mergeMillis, (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024.0),
+                stream.getResultsFile().length() / (1024.0 * 1024.0), stream.getJUnitXmlFile().length() / (1024.0 * 1024.0));
+        stream.getResultsFile().delete();
+        stream.getJUnitXmlFile().delete();
+        directory.delete();
+    }
+
+    private static JsonObject result(int i) {
+        JsonObject result = new JsonObject();
+        result.addProperty("suite", "suite_" + (i % 3));
+        result.addProperty("test", "example");
+        result.addProperty("class", "com.qa.tests.MultiDeviceExampleTest");
+        result.addProperty("method", "method_" + (i % 50));
+        boolean failed = i % 20 == 0;
+        result.addProperty("status", failed ? "FAILURE" : i % 33 == 0 ? "SKIP" : "PASS");
+        result.addProperty("start", 1500000000000L + i);
+        result.addProperty("end", 1500000000000L + i + 2000);
+        result.addProperty("durationMillis", 2000);
+        result.addProperty("thread", "TestNG-test-example-" + (i % 8));
+        JsonObject device = new JsonObject();
+        device.addProperty("name", "device_" + (i % 500));
+        device.addProperty("platformName", "Android");
+        device.addProperty("platformVersion", "8.1");
+        device.addProperty("deviceType", "phone");
+        result.add("device", device);
+        JsonArray screenshots = new JsonArray();
+        screenshots.add("18-10-2026_10-00-00.00_thread_1_device_" + (i % 500) + "__screenshot");
+        result.add("screenshots", screenshots);
+        if (failed) {
+            JsonObject failure = new JsonObject();
+            failure.addProperty("type", "org.openqa.selenium.TimeoutException");
+            failure.addProperty("message", "Expected condition failed: waiting for element to be clickable");
+            failure.addProperty("stackTrace", "org.openqa.selenium.TimeoutException: Expected condition failed\n\tat com.qa.pageobjects.BasePage.click(BasePage.java:42)\n");
+            result.add("failure", failure);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package com.qa.benchmarks;
+
+import com.qa.basetest.VirtualThreadExecutorFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs simulated device test instances, each a series of blocking "device commands" (sleeps of the command latency),
+ * once on a platform thread per instance and once on virtual threads, and
+ * reports the peak thread count, peak resident memory and heap, and the wall clock time for 50, 200 and 500 devices.
+ *
+ * Run each mode in its own JVM so the numbers don't mix, with:
+ * java -cp target/test-classes:target/classes:<dependencies> com.qa.benchmarks.VirtualThreadBenchmark [platform|virtual] [commands per device] [command latency ms]
+ */
+public class VirtualThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "virtual";
+        final int commands = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        System.out.printf("%-8s %8s %12s %14s %14s %10s%n", "mode", "devices", "peak threads", "peak RSS (MB)", "peak heap (MB)", "time (ms)");
+        for (int devices : new int[] { 50, 200, 500 }) {
+            run(mode, devices, commands, latencyMillis);
+        }
+    }
+
+    private static void run(String mode, int devices, final int commands, final long latencyMillis) throws Exception {
+        System.gc();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+        ExecutorService executor = mode.equals("platform")
+                ? new ThreadPoolExecutor(devices, devices, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>())
+                : new VirtualThreadExecutorFactory.BoundedVirtualThreadExecutor(devices);
+
+        final CountDownLatch done = new CountDownLatch(devices);
+        final AtomicLong peakRss = new AtomicLong();
+        final AtomicLong peakHeap = new AtomicLong();
+        Thread sampler = new Thread(new Runnable() {
+            public void run() {
+                while (done.getCount() > 0) {
+                    peakRss.accumulateAndGet(residentKilobytes(), Math::max);
+                    Runtime runtime = Runtime.getRuntime();
+                    peakHeap.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long start = System.nanoTime();
+        for (int device = 0; device < devices; device++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int command = 0; command < commands; command++) {
+                            // a blocking round trip to the device, plus the response it would send back.
+                            Thread.sleep(latencyMillis);
+                            byte[] response = new byte[2048];
+                            response[command % response.length] = 1;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        sampler.join();
+
+        System.out.printf("%-8s %8d %12d %14.1f %14.1f %10d%n", mode, devices, threadBean.getPeakThreadCount(), peakRss.get() / 1024.0,
+                peakHeap.get() / (1024.0 * 1024.0), elapsedMillis);
+    }
+
+    /**
+     * @return the resident set size of the JVM from /proc (Linux only), 0 elsewhere
+     */
+    private static long residentKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,509 @@
+package com.qa.fakeserver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.qa.utils.PropertiesHelper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the Appium endpoint that answers the JSON wire protocol locally, so the harness can be run and
+ * benchmarked without real devices. Use it as the saucelabs_endpoint:
+ *
+ * java -cp target/test-classes:target/classes:<dependencies> com.qa.fakeserver.FakeAppiumServer
+ * mvn test -Dsaucelabs_endpoint=http://localhost:4723/wd/hub
+ *
+ * It serves the two pages MultiDeviceExampleTest visits (the home page, and the registration page behind the second
+ * "text-bold" element) and keeps what was typed into the fields. Every command waits fake_command_latency ms give or
+ * take fake_command_jitter ms and fails with an unknown error fake_failure_percent of the time; session creation has its
+ * own fake_session_latency and fake_session_failure_percent. A device (the "name" capability) holds one session at a
+ * time, asking for a second one fails like a busy real device. The random numbers are seeded with fake_seed so a run
+ * can be repeated. All settings are read from system properties (-Dfake_port=4723 ...).
+ */
+public class FakeAppiumServer {
+
+    private static final int SUCCESS = 0;
+    private static final int NO_SUCH_ELEMENT = 7;
+    private static final int STALE_ELEMENT_REFERENCE = 10;
+    private static final int UNKNOWN_ERROR = 13;
+    private static final int NO_SUCH_SESSION = 6;
+    private static final int SESSION_NOT_CREATED = 33;
+
+    private static final String HOME_PAGE = "home";
+    private static final String REGISTER_PAGE = "register";
+
+    private final int port;
+    private final long commandLatencyMillis;
+    private final long commandJitterMillis;
+    private final double failurePercent;
+    private final long sessionLatencyMillis;
+    private final double sessionFailurePercent;
+    private final Random random;
+
+    private final ConcurrentHashMap<String, FakeSession> sessions = new ConcurrentHashMap<String, FakeSession>();
+    private final ConcurrentHashMap<String, String> busyDevices = new ConcurrentHashMap<String, String>();
+    private final Map<String, byte[]> screenshots = new HashMap<String, byte[]>();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeAppiumServer(Properties properties) {
+        this.port = (int) PropertiesHelper.getLongProperty(properties, "fake_port", 4723);
+        this.commandLatencyMillis = PropertiesHelper.getLongProperty(properties, "fake_command_latency", 50);
+        this.commandJitterMillis = PropertiesHelper.getLongProperty(properties, "fake_command_jitter", 20);
+        this.failurePercent = getPercentProperty(properties, "fake_failure_percent");
+        this.sessionLatencyMillis = PropertiesHelper.getLongProperty(properties, "fake_session_latency", 2000);
+        this.sessionFailurePercent = getPercentProperty(properties, "fake_session_failure_percent");
+        this.random = new Random(PropertiesHelper.getLongProperty(properties, "fake_seed", 42));
+    }
+
+    public static void main(String[] args) throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer(System.getProperties());
+        server.start();
+        System.out.println("Fake Appium server listening on [" + server.getEndpoint() + "], stop it with Ctrl+C");
+    }
+
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 64);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the URL to use as saucelabs_endpoint
+     */
+    public String getEndpoint() {
+        return "http://localhost:" + (server == null ? port : server.getAddress().getPort()) + "/wd/hub";
+    }
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    public int getOpenSessions() {
+        return sessions.size();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        JsonObject response;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String body = read(exchange.getRequestBody());
+            JsonObject request = body.trim().isEmpty() ? new JsonObject() : new JsonParser().parse(body).getAsJsonObject();
+            response = dispatch(exchange.getRequestMethod(), path, request);
+        } catch (RuntimeException e) {
+            response = error(null, UNKNOWN_ERROR, "fake server failed: " + e);
+        }
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.get("status").getAsInt() == SUCCESS ? 200 : 500, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private JsonObject dispatch(String method, String path, JsonObject request) {
+        int sessionPath = path.indexOf("/session");
+        if (sessionPath < 0) {
+            // GET /status and anything else outside a session.
+            JsonObject ready = new JsonObject();
+            ready.addProperty("ready", true);
+            return success(null, ready);
+        }
+        List<String> segments = new ArrayList<String>();
+        for (String segment : path.substring(sessionPath + "/session".length()).split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        if (segments.isEmpty()) {
+            return method.equals("POST") ? createSession(request) : success(null, new JsonArray());
+        }
+
+        FakeSession session = sessions.get(segments.get(0));
+        if (session == null) {
+            return error(segments.get(0), NO_SUCH_SESSION, "no session with id " + segments.get(0));
+        }
+        commands.incrementAndGet();
+        sleep(commandLatencyMillis + (commandJitterMillis > 0 ? (long) ((nextDouble() * 2 - 1) * commandJitterMillis) : 0));
+        if (segments.size() == 1 && method.equals("DELETE")) {
+            sessions.remove(session.id);
+            busyDevices.remove(session.deviceName, session.id);
+            return success(session.id, JsonNull.INSTANCE);
+        }
+        if (failurePercent > 0 && nextDouble() * 100 < failurePercent) {
+            failures.incrementAndGet();
+            return error(session.id, UNKNOWN_ERROR, "injected failure");
+        }
+        synchronized (session) {
+            return session.execute(method, segments.subList(1, segments.size()), request);
+        }
+    }
+
+    private JsonObject createSession(JsonObject request) {
+        JsonObject capabilities = new JsonObject();
+        if (request.has("desiredCapabilities")) {
+            for (Map.Entry<String, JsonElement> capability : request.getAsJsonObject("desiredCapabilities").entrySet()) {
+                capabilities.add(capability.getKey(), capability.getValue());
+            }
+        }
+        String deviceName = capabilities.has("name") ? capabilities.get("name").getAsString() : "fake-device";
+        String id = UUID.randomUUID().toString();
+
+        if (busyDevices.putIfAbsent(deviceName, id) != null) {
+            rejectedSessions.incrementAndGet();
+            return error(null, SESSION_NOT_CREATED, "device [" + deviceName + "] is already in use by another session");
+        }
+        sleep(sessionLatencyMillis + (commandJitterMillis > 0 ? (long) (nextDouble() * commandJitterMillis) : 0));
+        if (sessionFailurePercent > 0 && nextDouble() * 100 < sessionFailurePercent) {
+            busyDevices.remove(deviceName, id);
+            failures.incrementAndGet();
+            return error(null, SESSION_NOT_CREATED, "injected session failure on device [" + deviceName + "]");
+        }
+
+        capabilities.addProperty("testobject_device", deviceName);
+        capabilities.addProperty("testobject_test_report_url", "http://localhost/fake-report/" + id);
+        FakeSession session = new FakeSession(id, deviceName, capabilities);
+        sessions.put(id, session);
+        return success(id, capabilities);
+    }
+
+    private byte[] screenshot(String page, int filledFields) {
+        String key = page + filledFields;
+        synchronized (screenshots) {
+            byte[] png = screenshots.get(key);
+            if (png == null) {
+                BufferedImage image = new BufferedImage(360, 640, BufferedImage.TYPE_INT_RGB);
+                Graphics2D graphics = image.createGraphics();
+                graphics.setColor(page.equals(HOME_PAGE) ? new Color(36, 41, 46) : new Color(250, 251, 252));
+                graphics.fillRect(0, 0, 360, 640);
+                graphics.setColor(new Color(40, 167, 69));
+                graphics.fillRect(20, 100, 40 + filledFields * 100, 40);
+                graphics.dispose();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    ImageIO.write(image, "png", out);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                png = out.toByteArray();
+                screenshots.put(key, png);
+            }
+            return png;
+        }
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private static JsonObject success(String sessionId, JsonElement value) {
+        JsonObject response = new JsonObject();
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("status", SUCCESS);
+        response.add("value", value);
+        return response;
+    }
+
+    private static JsonObject error(String sessionId, int status, String message) {
+        JsonObject value = new JsonObject();
+        value.addProperty("message", message);
+        JsonObject response = new JsonObject();
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("status", status);
+        response.add("value", value);
+        return response;
+    }
+
+    private static JsonObject elementReference(String elementId) {
+        JsonObject reference = new JsonObject();
+        reference.addProperty("ELEMENT", elementId);
+        reference.addProperty("element-6066-11e4-a52f-4ce936f3ad2a", elementId);
+        return reference;
+    }
+
+    private static String elementId(JsonElement reference) {
+        if (reference == null || !reference.isJsonObject()) {
+            return null;
+        }
+        JsonObject object = reference.getAsJsonObject();
+        return object.has("ELEMENT") ? object.get("ELEMENT").getAsString()
+                : object.has("element-6066-11e4-a52f-4ce936f3ad2a") ? object.get("element-6066-11e4-a52f-4ce936f3ad2a").getAsString() : null;
+    }
+
+    private static double getPercentProperty(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        try {
+            return value == null || value.trim().isEmpty() ? 0 : Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An element the fake pages know about: how it is located, where it is and what clicking it does.
+     */
+    private static class ElementDefinition {
+        private final String page;
+        private final String using;
+        private final String value;
+        private final int x;
+        private final int y;
+        private final String navigatesTo;
+
+        private ElementDefinition(String page, String using, String value, int x, int y, String navigatesTo) {
+            this.page = page;
+            this.using = using;
+            this.value = value;
+            this.x = x;
+            this.y = y;
+            this.navigatesTo = navigatesTo;
+        }
+    }
+
+    private static final List<ElementDefinition> ELEMENTS = Arrays.asList(
+            new ElementDefinition(HOME_PAGE, "class name", "mt-1", 320, 20, null),
+            new ElementDefinition(HOME_PAGE, "class name", "text-bold", 20, 200, null),
+            new ElementDefinition(HOME_PAGE, "class name", "text-bold", 20, 300, REGISTER_PAGE),
+            new ElementDefinition(REGISTER_PAGE, "id", "user_login", 20, 100, null),
+            new ElementDefinition(REGISTER_PAGE, "id", "user_email", 20, 160, null),
+            new ElementDefinition(REGISTER_PAGE, "id", "user_password", 20, 220, null),
+            new ElementDefinition(REGISTER_PAGE, "id", "signup_button", 20, 300, null));
+
+    private class FakeSession {
+        private final String id;
+        private final String deviceName;
+        private final JsonObject capabilities;
+        private final Map<String, ElementDefinition> elements = new HashMap<String, ElementDefinition>();
+        private final Map<String, Integer> elementGenerations = new HashMap<String, Integer>();
+        private final Map<ElementDefinition, String> values = new HashMap<ElementDefinition, String>();
+        private String page = HOME_PAGE;
+        private String url = "about:blank";
+        private int generation;
+        private ElementDefinition focused;
+        private int nextElementId;
+
+        private FakeSession(String id, String deviceName, JsonObject capabilities) {
+            this.id = id;
+            this.deviceName = deviceName;
+            this.capabilities = capabilities;
+        }
+
+        private JsonObject execute(String method, List<String> command, JsonObject request) {
+            String name = command.isEmpty() ? "" : command.get(0);
+            if (command.isEmpty()) {
+                return success(id, capabilities);
+            }
+            if (name.equals("url")) {
+                if (method.equals("POST")) {
+                    navigate(HOME_PAGE, request.get("url").getAsString());
+                    return success(id, JsonNull.INSTANCE);
+                }
+                return success(id, new JsonPrimitive(url));
+            }
+            if (name.equals("screenshot")) {
+                return success(id, new JsonPrimitive(Base64.getEncoder().encodeToString(screenshot(page, values.size()))));
+            }
+            if (name.equals("execute") || name.equals("execute_sync")) {
+                return executeScript(request);
+            }
+            if ((name.equals("element") || name.equals("elements")) && command.size() == 1) {
+                return find(name.equals("elements"), request.get("using").getAsString(), request.get("value").getAsString());
+            }
+            if (name.equals("element") && command.get(1).equals("active")) {
+                return focused == null ? error(id, NO_SUCH_ELEMENT, "no element has the focus") : success(id, elementReference(register(focused)));
+            }
+            if (name.equals("element") && command.size() >= 3) {
+                return elementCommand(method, command.get(1), command.get(2), command.size() > 3 ? command.get(3) : null, request);
+            }
+            // timeouts, contexts and the like are accepted and ignored.
+            return success(id, JsonNull.INSTANCE);
+        }
+
+        private JsonObject find(boolean all, String using, String value) {
+            JsonArray found = new JsonArray();
+            for (ElementDefinition definition : ELEMENTS) {
+                if (definition.page.equals(page) && definition.using.equals(using) && definition.value.equals(value)) {
+                    found.add(elementReference(register(definition)));
+                    if (!all) {
+                        return success(id, found.get(0));
+                    }
+                }
+            }
+            if (!all) {
+                return error(id, NO_SUCH_ELEMENT, "no element located by " + using + " [" + value + "] on the " + page + " page");
+            }
+            return success(id, found);
+        }
+
+        private JsonObject elementCommand(String method, String elementId, String command, String argument, JsonObject request) {
+            ElementDefinition element = elements.get(elementId);
+            if (element == null) {
+                return error(id, NO_SUCH_ELEMENT, "unknown element " + elementId);
+            }
+            if (elementGenerations.get(elementId) != generation) {
+                return error(id, STALE_ELEMENT_REFERENCE, "the element is no longer attached to the page");
+            }
+            if (command.equals("click")) {
+                focused = element;
+                if (element.navigatesTo != null) {
+                    navigate(element.navigatesTo, url.replaceAll("/+$", "") + "/join");
+                }
+                return success(id, JsonNull.INSTANCE);
+            }
+            if (command.equals("value")) {
+                StringBuilder text = new StringBuilder(values.containsKey(element) ? values.get(element) : "");
+                for (JsonElement key : request.getAsJsonArray("value")) {
+                    text.append(key.getAsString());
+                }
+                values.put(element, text.toString());
+                return success(id, JsonNull.INSTANCE);
+            }
+            if (command.equals("clear")) {
+                values.remove(element);
+                return success(id, JsonNull.INSTANCE);
+            }
+            if (command.equals("attribute")) {
+                return success(id, "value".equals(argument) ? new JsonPrimitive(values.containsKey(element) ? values.get(element) : "") : JsonNull.INSTANCE);
+            }
+            if (command.equals("text")) {
+                return success(id, new JsonPrimitive(element.value));
+            }
+            if (command.equals("displayed") || command.equals("enabled")) {
+                return success(id, new JsonPrimitive(true));
+            }
+            if (command.equals("selected")) {
+                return success(id, new JsonPrimitive(element == focused));
+            }
+            if (command.equals("location") || command.equals("location_in_view") || command.equals("rect")) {
+                JsonObject location = new JsonObject();
+                location.addProperty("x", element.x);
+                location.addProperty("y", element.y);
+                location.addProperty("width", 320);
+                location.addProperty("height", 40);
+                return success(id, location);
+            }
+            if (command.equals("size")) {
+                JsonObject size = new JsonObject();
+                size.addProperty("width", 320);
+                size.addProperty("height", 40);
+                return success(id, size);
+            }
+            return success(id, JsonNull.INSTANCE);
+        }
+
+        /**
+         * Only the scripts the page objects run are understood: the batched state read and the focus check.
+         */
+        private JsonObject executeScript(JsonObject request) {
+            String script = request.get("script").getAsString();
+            JsonArray args = request.has("args") ? request.getAsJsonArray("args") : new JsonArray();
+            String elementId = args.size() > 0 ? elementId(args.get(0)) : null;
+            ElementDefinition element = elementId == null ? null : elements.get(elementId);
+            if (element != null && elementGenerations.get(elementId) != generation) {
+                return error(id, STALE_ELEMENT_REFERENCE, "the element is no longer attached to the page");
+            }
+            if (element != null && script.contains("document.activeElement")) {
+                return success(id, new JsonPrimitive(element == focused));
+            }
+            if (element != null && script.contains("getBoundingClientRect")) {
+                JsonArray state = new JsonArray();
+                state.add(true);
+                state.add(true);
+                state.add(element.x);
+                state.add(element.y);
+                return success(id, state);
+            }
+            return success(id, JsonNull.INSTANCE);
+        }
+
+        private String register(ElementDefinition definition) {
+            String elementId = id.substring(0, 8) + "-" + (++nextElementId);
+            elements.put(elementId, definition);
+            elementGenerations.put(elementId, generation);
+            return elementId;
+        }
+
+        private void navigate(String newPage, String newUrl) {
+            page = newPage;
+            url = newUrl;
+            focused = null;
+            values.clear();
+            // everything located on the previous page is stale now.
+            generation++;
+        }
+    }
+}
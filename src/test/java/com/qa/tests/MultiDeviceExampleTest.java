@@ -2,6 +2,7 @@ package com.qa.tests;
 
 import com.qa.basetest.MultiDeviceBaseTest;
 import com.qa.basetest.TestTags;
+import com.qa.basetest.devices.DeviceConfig;
 import com.qa.basetest.tags.DeviceType;
 import com.qa.basetest.tags.Phase;
 import com.qa.basetest.tags.Platform;
@@ -10,16 +11,13 @@ import com.qa.pageobjects.RegisterPage;
 import com.qa.utils.Reporter;
 import com.qa.utils.TestUtils;
 import org.testng.Assert;
-import org.testng.annotations.AfterClass;
 import org.testng.annotations.Factory;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
 public class MultiDeviceExampleTest extends MultiDeviceBaseTest {
 
     @Factory(dataProvider = "getDevices")
-    public MultiDeviceExampleTest(HashMap<String, Object> deviceConfig) {
+    public MultiDeviceExampleTest(DeviceConfig deviceConfig) {
         super(deviceConfig);
     }
 
@@ -27,17 +25,20 @@ public class MultiDeviceExampleTest extends MultiDeviceBaseTest {
     @Test
     public void exampleAppiumTest() {
         //visit home page
+        Reporter.setStep("visit home page");
         HomePage homePage = new HomePage(appiumDriver, baseProperties);
         homePage.navigateTo();
         homePage.toggleMenu();
 
         //go to registration page.
+        Reporter.setStep("go to registration page");
         RegisterPage registerPage = homePage.clickSignUpButton();
         registerPage.waitforPageLoaded();
         TestUtils.takeScreenshot(appiumDriver);
         Reporter.info("Current Url : " + appiumDriver.getCurrentUrl());
 
         //populate the fields
+        Reporter.setStep("populate the fields");
         registerPage.selectUserNameField();
         registerPage.populateUserNameField("username1234");
         registerPage.selectEmailField();
@@ -46,6 +47,7 @@ public class MultiDeviceExampleTest extends MultiDeviceBaseTest {
         registerPage.populatePasswordField("MyP@ssw0rd1s5up3rSecur3");
 
         //assert the values
+        Reporter.setStep("assert the values");
         Assert.assertEquals(registerPage.getUserNameField(), "username1234");
         Assert.assertEquals(registerPage.getEmailField(), "user123@emailaddress.com");
         Assert.assertEquals(registerPage.isSignUpButtonEnabled(), true);
@@ -53,10 +55,4 @@ public class MultiDeviceExampleTest extends MultiDeviceBaseTest {
         TestUtils.takeScreenshot(appiumDriver);
     }
 
-    @AfterClass
-    public void afterClass() {
-        appiumDriver.close();
-        appiumDriver.quit();
-    }
-
 }
@@ -0,0 +1,141 @@
+package com.qa.utils;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class DeviceCatalogCacheTest {
+
+    private File directory;
+    private DeviceCatalogCache cache;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("device-catalog").toFile();
+        directory.deleteOnExit();
+        cache = new DeviceCatalogCache(new File(directory, "cache"));
+    }
+
+    @Test
+    public void servesTheSheetRowsFromTheSnapshot() throws IOException {
+        File workbook = writeWorkbook(new File(directory, "devices.xlsx"), 3);
+
+        ArrayList<Object[]> built = cache.retrieveAllRows(workbook.getPath(), "RealDevices");
+        File snapshot = cache.cacheFileFor(workbook.getPath(), "RealDevices");
+        Assert.assertTrue(snapshot.isFile(), "the snapshot is written on the first read");
+        long written = snapshot.lastModified();
+
+        ArrayList<Object[]> loaded = cache.retrieveAllRows(workbook.getPath(), "RealDevices");
+        assertSameRows(loaded, built);
+        assertSameRows(loaded, new ExcelHelper().retrieveAllRows(workbook.getPath(), "RealDevices"));
+        Assert.assertEquals(snapshot.lastModified(), written, "a valid snapshot isn't rewritten");
+    }
+
+    @Test
+    public void rebuildsTheSnapshotWhenTheSheetChanges() throws IOException {
+        File workbook = writeWorkbook(new File(directory, "devices.xlsx"), 2);
+        Assert.assertEquals(cache.retrieveAllRows(workbook.getPath(), "RealDevices").size(), 2);
+
+        writeWorkbook(workbook, 5);
+        // make sure the stamp differs even where the file system only keeps whole seconds.
+        Assert.assertTrue(workbook.setLastModified(workbook.lastModified() + 2000));
+        ArrayList<Object[]> rows = cache.retrieveAllRows(workbook.getPath(), "RealDevices");
+
+        Assert.assertEquals(rows.size(), 5);
+        assertSameRows(rows, new ExcelHelper().retrieveAllRows(workbook.getPath(), "RealDevices"));
+    }
+
+    @Test
+    public void keepsTheSnapshotWhenOnlyTheModificationTimeChanges() throws IOException {
+        File workbook = writeWorkbook(new File(directory, "devices.xlsx"), 2);
+        ArrayList<Object[]> built = cache.retrieveAllRows(workbook.getPath(), "RealDevices");
+        File snapshot = cache.cacheFileFor(workbook.getPath(), "RealDevices");
+        long length = snapshot.length();
+
+        Assert.assertTrue(workbook.setLastModified(workbook.lastModified() + 60000));
+        assertSameRows(cache.retrieveAllRows(workbook.getPath(), "RealDevices"), built);
+        Assert.assertEquals(snapshot.length(), length);
+    }
+
+    @Test
+    public void givesWorkbooksWithTheSameSheetNameTheirOwnSnapshot() throws IOException {
+        File first = writeWorkbook(new File(directory, "first.xlsx"), 1);
+        File second = writeWorkbook(new File(directory, "second.xlsx"), 4);
+
+        Assert.assertNotEquals(cache.cacheFileFor(first.getPath(), "RealDevices"), cache.cacheFileFor(second.getPath(), "RealDevices"));
+        Assert.assertEquals(cache.retrieveAllRows(first.getPath(), "RealDevices").size(), 1);
+        Assert.assertEquals(cache.retrieveAllRows(second.getPath(), "RealDevices").size(), 4);
+        Assert.assertEquals(cache.retrieveAllRows(first.getPath(), "RealDevices").size(), 1);
+    }
+
+    @Test
+    public void rebuildsATruncatedSnapshot() throws IOException {
+        File workbook = writeWorkbook(new File(directory, "devices.xlsx"), 3);
+        ArrayList<Object[]> built = cache.retrieveAllRows(workbook.getPath(), "RealDevices");
+        File snapshot = cache.cacheFileFor(workbook.getPath(), "RealDevices");
+        long length = snapshot.length();
+
+        // cut short in the middle of the rows, as a run killed while writing it without the atomic move would leave it.
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(length - 10);
+        }
+        assertSameRows(cache.retrieveAllRows(workbook.getPath(), "RealDevices"), built);
+        Assert.assertEquals(snapshot.length(), length, "the snapshot is written again");
+    }
+
+    @Test
+    public void rebuildsACorruptSnapshot() throws IOException {
+        File workbook = writeWorkbook(new File(directory, "devices.xlsx"), 3);
+        ArrayList<Object[]> built = cache.retrieveAllRows(workbook.getPath(), "RealDevices");
+        File snapshot = cache.cacheFileFor(workbook.getPath(), "RealDevices");
+        long length = snapshot.length();
+
+        // a valid header followed by garbage, e.g. a string index pointing past the string table.
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        for (int i = bytes.length / 2; i < bytes.length; i++) {
+            bytes[i] = (byte) 0x7f;
+        }
+        Files.write(snapshot.toPath(), bytes);
+
+        assertSameRows(cache.retrieveAllRows(workbook.getPath(), "RealDevices"), built);
+        Assert.assertEquals(snapshot.length(), length, "the snapshot is written again");
+    }
+
+    private static File writeWorkbook(File file, int devices) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            XSSFSheet sheet = workbook.createSheet("RealDevices");
+            XSSFRow heading = sheet.createRow(0);
+            heading.createCell(0).setCellValue("name");
+            heading.createCell(1).setCellValue("platformName");
+            heading.createCell(2).setCellValue("platformVersion");
+            for (int i = 1; i <= devices; i++) {
+                XSSFRow row = sheet.createRow(i);
+                row.createCell(0).setCellValue("device_" + i);
+                row.createCell(1).setCellValue(i % 2 == 0 ? "iOS" : "Android");
+                row.createCell(2).setCellValue(7 + i);
+            }
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertSameRows(ArrayList<Object[]> actual, ArrayList<Object[]> expected) {
+        Assert.assertEquals(actual.size(), expected.size(), "row count");
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals((HashMap<String, Object>) actual.get(i)[0], (HashMap<String, Object>) expected.get(i)[0], "row " + (i + 1));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.qa.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void givesEveryValueBelow64ItsOwnBucket() {
+        for (long value = 0; value < 64; value++) {
+            Assert.assertEquals(LatencyHistogram.bucketOf(value), (int) value);
+            Assert.assertEquals(LatencyHistogram.valueOf((int) value), value);
+        }
+        Assert.assertEquals(LatencyHistogram.bucketOf(64), 64);
+        Assert.assertEquals(LatencyHistogram.bucketOf(65), 64);
+        Assert.assertEquals(LatencyHistogram.bucketOf(66), 65);
+    }
+
+    @Test
+    public void startsANewBucketAtEveryPowerOfTwo() {
+        for (int exponent = 6; exponent < 63; exponent++) {
+            long powerOfTwo = 1L << exponent;
+            Assert.assertEquals(LatencyHistogram.bucketOf(powerOfTwo - 1) + 1, LatencyHistogram.bucketOf(powerOfTwo), "2^" + exponent);
+            // the 32 buckets of a power of two split it evenly.
+            long width = powerOfTwo >> 5;
+            Assert.assertEquals(LatencyHistogram.bucketOf(powerOfTwo + width - 1), LatencyHistogram.bucketOf(powerOfTwo), "2^" + exponent);
+            Assert.assertEquals(LatencyHistogram.bucketOf(powerOfTwo + width), LatencyHistogram.bucketOf(powerOfTwo) + 1, "2^" + exponent);
+        }
+        Assert.assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) > LatencyHistogram.bucketOf(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    public void bucketValuesAreWithinThreePercent() {
+        int previous = -1;
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 / 2 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            Assert.assertTrue(bucket >= previous, "buckets grow with the value");
+            previous = bucket;
+            long bucketValue = LatencyHistogram.valueOf(bucket);
+            Assert.assertTrue(Math.abs(bucketValue - value) <= value * 0.032, "value [" + value + "] bucket value [" + bucketValue + "]");
+        }
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertEquals(histogram.getPercentileMicros(50), 0);
+        Assert.assertEquals(histogram.getPercentileMicros(100), 0);
+        Assert.assertEquals(histogram.getMeanMicros(), 0.0);
+    }
+
+    @Test
+    public void reportsPercentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.recordMicros(value);
+        }
+        Assert.assertEquals(histogram.getCount(), 10000);
+        Assert.assertEquals(histogram.getMeanMicros(), 5000.5, 0.001);
+        assertWithin(histogram.getPercentileMicros(50), 5000);
+        assertWithin(histogram.getPercentileMicros(90), 9000);
+        assertWithin(histogram.getPercentileMicros(99), 9900);
+        assertWithin(histogram.getPercentileMicros(99.9), 9990);
+        Assert.assertEquals(histogram.getPercentileMicros(100), 10000);
+        Assert.assertEquals(histogram.getPercentileMicros(0), 1);
+    }
+
+    @Test
+    public void neverReportsMoreThanTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1000 is the low end of its bucket, whose middle value is higher.
+        histogram.recordMicros(1000);
+        Assert.assertEquals(histogram.getMaxMicros(), 1000);
+        Assert.assertEquals(histogram.getPercentileMicros(50), 1000);
+        Assert.assertEquals(histogram.getPercentileMicros(99), 1000);
+    }
+
+    @Test
+    public void separatesATailFromTheBulk() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.recordMicros(200);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.recordMicros(2000000);
+        }
+        assertWithin(histogram.getPercentileMicros(50), 200);
+        assertWithin(histogram.getPercentileMicros(99), 200);
+        assertWithin(histogram.getPercentileMicros(99.5), 2000000);
+        Assert.assertEquals(histogram.getMaxMicros(), 2000000);
+    }
+
+    @Test
+    public void recordsNegativeValuesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(-5);
+        Assert.assertEquals(histogram.getCount(), 1);
+        Assert.assertEquals(histogram.getPercentileMicros(50), 0);
+        Assert.assertEquals(histogram.getMeanMicros(), 0.0);
+    }
+
+    @Test(timeOut = 60000)
+    public void countsEveryValueRecordedConcurrently() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long offset = t * 100000L;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (long value = 1; value <= 100000; value++) {
+                        histogram.recordMicros(offset + value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(histogram.getCount(), 400000);
+        Assert.assertEquals(histogram.getMaxMicros(), 400000);
+        assertWithin(histogram.getPercentileMicros(50), 200000);
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        Assert.assertTrue(Math.abs(actual - expected) <= expected * 0.032, "expected about [" + expected + "] but was [" + actual + "]");
+    }
+}
@@ -0,0 +1,111 @@
+package com.qa.utils;
+
+import org.apache.log4j.Level;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class ReportRingBufferTest {
+
+    @Test
+    public void roundsTheCapacityUpToAPowerOfTwo() {
+        Assert.assertEquals(new ReportRingBuffer(8).capacity(), 8);
+        Assert.assertEquals(new ReportRingBuffer(5).capacity(), 8);
+        Assert.assertEquals(new ReportRingBuffer(1000).capacity(), 1024);
+    }
+
+    @Test
+    public void refusesEventsWhenFullUntilOneIsTaken() {
+        ReportRingBuffer buffer = new ReportRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(buffer.offer(event(i)));
+        }
+        Assert.assertFalse(buffer.offer(event(4)));
+        Assert.assertEquals(buffer.poll().getTimestamp(), 0);
+        Assert.assertTrue(buffer.offer(event(4)));
+        Assert.assertFalse(buffer.offer(event(5)));
+        Assert.assertEquals(buffer.claimed(), 5);
+        Assert.assertEquals(buffer.consumed(), 1);
+    }
+
+    @Test
+    public void keepsTheOrderOverManyLaps() {
+        ReportRingBuffer buffer = new ReportRingBuffer(4);
+        Assert.assertNull(buffer.poll());
+        long next = 0;
+        for (int i = 0; i < 1000; i++) {
+            // a varying number in flight so the slots are reused at every offset.
+            int batch = 1 + i % 4;
+            for (int j = 0; j < batch; j++) {
+                Assert.assertTrue(buffer.offer(event(next + j)));
+            }
+            for (int j = 0; j < batch; j++) {
+                Assert.assertEquals(buffer.poll().getTimestamp(), next + j);
+            }
+            Assert.assertNull(buffer.poll());
+            next += batch;
+        }
+        Assert.assertEquals(buffer.consumed(), next);
+    }
+
+    @Test(timeOut = 60000)
+    public void losesNothingWithSeveralProducersWrappingAround() throws InterruptedException {
+        final ReportRingBuffer buffer = new ReportRingBuffer(16);
+        final int producers = 4;
+        final int eventsPerProducer = 50000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (long sequence = 0; sequence < eventsPerProducer; sequence++) {
+                        while (!buffer.offer(event(sequence))) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }, "producer-" + p);
+            threads[p].start();
+        }
+
+        start.countDown();
+        // every producer's events have to come out once and in the order it offered them.
+        Map<Long, Long> nextPerProducer = new HashMap<Long, Long>();
+        long taken = 0;
+        while (taken < (long) producers * eventsPerProducer) {
+            ReportEvent event = buffer.poll();
+            if (event == null) {
+                Thread.yield();
+                continue;
+            }
+            Long expected = nextPerProducer.get(event.getThreadId());
+            Assert.assertEquals(event.getTimestamp(), expected == null ? 0 : expected.longValue(), "next event of [" + event.getThreadName() + "]");
+            nextPerProducer.put(event.getThreadId(), event.getTimestamp() + 1);
+            taken++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(buffer.poll());
+        Assert.assertEquals(nextPerProducer.size(), producers);
+        for (Long next : nextPerProducer.values()) {
+            Assert.assertEquals(next.longValue(), eventsPerProducer);
+        }
+        Assert.assertEquals(buffer.claimed(), (long) producers * eventsPerProducer);
+        Assert.assertEquals(buffer.consumed(), buffer.claimed());
+    }
+
+    // the timestamp carries the producer's own sequence number.
+    private static ReportEvent event(long sequence) {
+        return new ReportEvent(Level.INFO, sequence, Thread.currentThread(), null, null, null, "event", null, null);
+    }
+}
@@ -0,0 +1,138 @@
+package com.qa.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class ResultStreamTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("results").toFile();
+        directory.deleteOnExit();
+    }
+
+    @Test
+    public void writesOneTestSuitePerSuiteWithItsTotals() throws Exception {
+        ResultStream stream = new ResultStream(directory);
+        stream.append(result("example", "loginTest", "PASS", 1500, "Pixel"));
+        stream.append(result("smoke", "menuTest", "SKIP", 0, "iPhone_8"));
+        JsonObject failed = result("example", "registerTest", "FAILURE", 2500, "Pixel");
+        JsonObject failure = new JsonObject();
+        failure.addProperty("type", "java.lang.AssertionError");
+        failure.addProperty("message", "expected [<b>] & got [<a>]");
+        failure.addProperty("stackTrace", "java.lang.AssertionError\n\tat RegisterTest.registerTest");
+        failed.add("failure", failure);
+        JsonArray screenshots = new JsonArray();
+        screenshots.add("register_1");
+        screenshots.add("register_2");
+        failed.add("screenshots", screenshots);
+        stream.append(failed);
+        stream.close();
+        Assert.assertEquals(stream.getWritten(), 3);
+
+        Assert.assertEquals(ResultStream.mergeToJUnitXml(stream.getResultsFile(), stream.getJUnitXmlFile()), 3);
+        Element testsuites = parse(stream.getJUnitXmlFile()).getDocumentElement();
+
+        assertTotals(testsuites, "3", "1", "1", "4.000");
+        NodeList suites = testsuites.getElementsByTagName("testsuite");
+        Assert.assertEquals(suites.getLength(), 2);
+        Element example = (Element) suites.item(0);
+        Assert.assertEquals(example.getAttribute("name"), "example");
+        assertTotals(example, "2", "1", "0", "4.000");
+        Assert.assertEquals(((Element) suites.item(1)).getAttribute("name"), "smoke");
+        assertTotals((Element) suites.item(1), "1", "0", "1", "0.000");
+
+        NodeList cases = example.getElementsByTagName("testcase");
+        Assert.assertEquals(((Element) cases.item(0)).getAttribute("name"), "loginTest [Pixel]");
+        Assert.assertEquals(((Element) cases.item(0)).getAttribute("time"), "1.500");
+        Element register = (Element) cases.item(1);
+        Assert.assertEquals(register.getAttribute("classname"), "com.qa.tests.ExampleTest");
+        Element failureElement = (Element) register.getElementsByTagName("failure").item(0);
+        Assert.assertEquals(failureElement.getAttribute("message"), "expected [<b>] & got [<a>]");
+        Assert.assertEquals(failureElement.getAttribute("type"), "java.lang.AssertionError");
+        Assert.assertEquals(failureElement.getTextContent(), "java.lang.AssertionError\n\tat RegisterTest.registerTest");
+        Assert.assertEquals(register.getElementsByTagName("system-out").item(0).getTextContent(), "screenshot: register_1\nscreenshot: register_2\n");
+        Assert.assertEquals(((Element) suites.item(1)).getElementsByTagName("skipped").getLength(), 1);
+    }
+
+    @Test
+    public void skipsALineCutShortByAKilledRun() throws Exception {
+        File results = new File(directory, "results.ndjson");
+        String complete = result("example", "loginTest", "PASS", 1000, "Pixel").toString();
+        String cutShort = result("example", "registerTest", "FAILURE", 2000, "Pixel").toString();
+        // blank lines and a last line without its end, as left behind by a run killed halfway through writing it.
+        Files.write(results.toPath(), (complete + "\n\n" + complete.replace("loginTest", "menuTest") + "\n" + cutShort.substring(0, cutShort.length() / 2))
+                .getBytes(StandardCharsets.UTF_8));
+        File junitXml = new File(directory, "junit.xml");
+
+        Assert.assertEquals(ResultStream.mergeToJUnitXml(results, junitXml), 2);
+        Element testsuites = parse(junitXml).getDocumentElement();
+        assertTotals(testsuites, "2", "0", "0", "2.000");
+        Assert.assertEquals(testsuites.getElementsByTagName("testcase").getLength(), 2);
+        Assert.assertEquals(Arrays.asList(directory.list()).size(), 2, "only the results and the report are left: " + Arrays.asList(directory.list()));
+    }
+
+    @Test
+    public void skipsEveryPossibleCutOfTheLastLine() throws Exception {
+        String complete = result("example", "loginTest", "PASS", 1000, "Pixel").toString();
+        File results = new File(directory, "results.ndjson");
+        File junitXml = new File(directory, "junit.xml");
+        for (int cut = 1; cut < complete.length(); cut++) {
+            Files.write(results.toPath(), (complete + "\n" + complete.substring(0, cut)).getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(ResultStream.mergeToJUnitXml(results, junitXml), 1, "cut at [" + cut + "]: " + complete.substring(0, cut));
+            assertTotals(parse(junitXml).getDocumentElement(), "1", "0", "0", "1.000");
+        }
+    }
+
+    @Test
+    public void writesAnEmptyReportForNoResults() throws Exception {
+        File results = new File(directory, "results.ndjson");
+        Files.write(results.toPath(), new byte[0]);
+        File junitXml = new File(directory, "junit.xml");
+        Files.write(junitXml.toPath(), "previous run".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(ResultStream.mergeToJUnitXml(results, junitXml), 0);
+        Element testsuites = parse(junitXml).getDocumentElement();
+        Assert.assertEquals(testsuites.getTagName(), "testsuites");
+        assertTotals(testsuites, "0", "0", "0", "0.000");
+    }
+
+    private static void assertTotals(Element element, String tests, String failures, String skipped, String time) {
+        Assert.assertEquals(element.getAttribute("tests"), tests, element.getTagName() + " tests");
+        Assert.assertEquals(element.getAttribute("failures"), failures, element.getTagName() + " failures");
+        Assert.assertEquals(element.getAttribute("skipped"), skipped, element.getTagName() + " skipped");
+        Assert.assertEquals(element.getAttribute("time"), time, element.getTagName() + " time");
+    }
+
+    private static Document parse(File junitXml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(junitXml);
+    }
+
+    private static JsonObject result(String suite, String method, String status, long durationMillis, String deviceName) {
+        JsonObject result = new JsonObject();
+        result.addProperty("suite", suite);
+        result.addProperty("class", "com.qa.tests.ExampleTest");
+        result.addProperty("method", method);
+        result.addProperty("status", status);
+        result.addProperty("durationMillis", durationMillis);
+        JsonObject device = new JsonObject();
+        device.addProperty("name", deviceName);
+        result.add("device", device);
+        return result;
+    }
+}
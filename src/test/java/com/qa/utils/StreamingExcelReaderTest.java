@@ -0,0 +1,72 @@
+package com.qa.utils;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * The streaming (SAX) reader has to hand over exactly the rows the workbook (DOM) reader does.
+ */
+public class StreamingExcelReaderTest {
+
+    private static final String DEVICE_LIST = "src/test/resources/devices/devicelist.xlsx";
+
+    @Test
+    public void readsTheSameRowsAsTheWorkbookReader() {
+        ArrayList<Object[]> expected = new ExcelHelper().loadExcelFile(DEVICE_LIST).setActiveSheet("RealDevices").getAllRows();
+        ArrayList<Object[]> actual = new ExcelHelper().retrieveAllRows(DEVICE_LIST, "RealDevices");
+
+        Assert.assertFalse(expected.isEmpty());
+        assertSameRows(actual, expected);
+    }
+
+    @Test
+    public void readsEveryCellTypeLikeTheWorkbookReader() throws IOException {
+        File workbookFile = File.createTempFile("cell-types", ".xlsx");
+        workbookFile.deleteOnExit();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(workbookFile)) {
+            XSSFSheet sheet = workbook.createSheet("Cells");
+            XSSFRow heading = sheet.createRow(0);
+            String[] columns = { "text", "number", "date", "flag", "formula" };
+            for (int i = 0; i < columns.length; i++) {
+                heading.createCell(i).setCellValue(columns[i]);
+            }
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("dd/mm/yyyy"));
+            for (int r = 1; r <= 3; r++) {
+                XSSFRow row = sheet.createRow(r);
+                row.createCell(0).setCellValue("device " + r);
+                row.createCell(1).setCellValue(r * 1.5);
+                row.createCell(2).setCellValue(new Date(1500000000000L + r * 86400000L));
+                row.getCell(2).setCellStyle(dateStyle);
+                row.createCell(3).setCellValue(r % 2 == 0);
+                row.createCell(4).setCellFormula("B" + (r + 1) + "*2");
+            }
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.write(out);
+        }
+
+        ArrayList<Object[]> expected = new ExcelHelper().loadExcelFile(workbookFile.getPath()).setActiveSheet("Cells").getAllRows();
+        ArrayList<Object[]> actual = new ExcelHelper().retrieveAllRows(workbookFile.getPath(), "Cells");
+
+        Assert.assertEquals(expected.size(), 3);
+        assertSameRows(actual, expected);
+    }
+
+    private static void assertSameRows(ArrayList<Object[]> actual, ArrayList<Object[]> expected) {
+        Assert.assertEquals(actual.size(), expected.size(), "row count");
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i)[0], expected.get(i)[0], "row " + (i + 1));
+        }
+    }
+}